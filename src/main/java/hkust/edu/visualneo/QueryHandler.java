@@ -2,189 +2,358 @@ package hkust.edu.visualneo;
 
 import hkust.edu.visualneo.utils.backend.*;
 import hkust.edu.visualneo.utils.frontend.Canvas;
+import javafx.concurrent.Task;
 import org.neo4j.driver.Record;
 import org.neo4j.driver.*;
-
+import org.neo4j.driver.async.AsyncSession;
+import org.neo4j.driver.async.ResultCursor;
+import org.neo4j.driver.reactive.ReactiveSession;
+import org.neo4j.driver.reactive.ReactiveTransactionContext;
+import reactor.adapter.JdkFlowAdapter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+// Exact searches and metadata retrievals are run on the reactive sessions of the driver, so that no thread waits
+// for the database. The blocking entry points of the application wait on the same searches and retrievals
+// as the asynchronous ones.
 public class QueryHandler {
 
+    private static final Duration DEFAULT_SEARCH_TIMEOUT = Duration.ofSeconds(60);
+
+    private static final int PAGE_SIZE = 100;  // Matches per page of a paged search
+
+    private static final int RESULT_CACHE_SIZE = 32;
+    private static final Duration RESULT_CACHE_TIME_TO_LIVE = Duration.ofMinutes(10);
+
     private final QueryBuilder translator = new QueryBuilder();
 
-    private Driver driver;
-    private DbMetadata meta;
+    // Results of recent searches keyed by the canonical form of their patterns
+    private final LruCache<PatternFingerprint, Results> resultCache =
+            new LruCache<>(RESULT_CACHE_SIZE, RESULT_CACHE_TIME_TO_LIVE);
+
+    // Snapshots of previously retrieved metadata, checked against the database in the background
+    private final MetadataStore metadataStore = new MetadataStore();
+    private final ExecutorService revalidator = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metadata-revalidation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService searcher = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Driver driver;
+    private volatile int fetchSize = (int) DriverSettings.DEFAULT.fetchSize();  // Records requested from the driver at a time
+    private volatile DbMetadata meta;
+    private volatile Duration searchTimeout =
+            Duration.ofSeconds(Long.getLong("visualneo.searchTimeout", DEFAULT_SEARCH_TIMEOUT.toSeconds()));
+
+    private Runnable onMetadataChanged;
 
     void loadDatabase(String uri, String user, String password) {
-        initDriver(uri, user, password);
-        retrieveMetadata();
+        resultCache.clear();
+        CompletableFuture<Void> prewarmed = initDriver(uri, user, password);
+
+        String databaseId = read(driver, tx -> single(tx, Queries.DATABASE_ID_QUERY, Map.of()),
+                                 TransactionConfig.empty())
+                .map(record -> record.get("id").asString())
+                .block();
+        Optional<DbMetadata> snapshot = metadataStore.load(uri, databaseId);
+        if (snapshot.isPresent()) {
+            setMeta(snapshot.get());
+            Driver current = driver;
+            revalidator.execute(() -> revalidate(current, uri, databaseId));
+        }
+        else {
+            setMeta(retrieveMetadata(driver).block());
+            metadataStore.save(uri, databaseId, meta);
+        }
+
+        // A connection that failed to open fails the loading like any other query
+        try {
+            prewarmed.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw e;
+        }
 
         System.out.println(meta);
     }
 
-    private void initDriver(String uri, String user, String password) {
-        driver = GraphDatabase.driver(uri, AuthTokens.basic(user, password));
+    // Replace the snapshot if the label or relationship type counts no longer match the database
+    private void revalidate(Driver current, String uri, String databaseId) {
+        try {
+            Pair<Map<String, Integer>> counts =
+                    read(current, QueryHandler::retrieveCounts, TransactionConfig.empty()).block();
+            DbMetadata snapshot = meta;
+            if (counts.head().equals(snapshot.nodeCountsByLabel()) &&
+                counts.tail().equals(snapshot.relationCountsByLabel()))
+                return;
+
+            DbMetadata fresh = retrieveMetadata(current).block();
+            if (driver != current)  // Another database has been loaded meanwhile
+                return;
+
+            metadataStore.save(uri, databaseId, fresh);
+            setMeta(fresh);
+            System.out.println(fresh);
+            if (onMetadataChanged != null)
+                onMetadataChanged.run();
+        }
+        catch (RuntimeException e) {
+            System.out.println("Error when revalidating the metadata snapshot");
+            e.printStackTrace();
+        }
+    }
+
+    private void setMeta(DbMetadata meta) {
+        this.meta = meta;
+        translator.setMetadata(meta);
+        resultCache.clear();
+    }
+
+    // Returns the pre-warming of the connection pool, still in progress
+    private CompletableFuture<Void> initDriver(String uri, String user, String password) {
+        DriverSettings settings = DriverSettings.load();
+        Driver previous = driver;
+        driver = GraphDatabase.driver(uri, AuthTokens.basic(user, password), settings.toConfig());
+        fetchSize = (int) Math.min(settings.fetchSize(), Integer.MAX_VALUE);
         driver.verifyConnectivity();
+        if (previous != null)
+            previous.closeAsync();
+        return prewarm(driver, settings.prewarmedConnections());
+    }
+
+    // Open connections in the background, all at once so that each one is a distinct connection of the pool,
+    // for the first queries not to wait for the handshakes
+    private static CompletableFuture<Void> prewarm(Driver driver, int connections) {
+        SessionConfig sessionConfig = SessionConfig.builder()
+                                                   .withDefaultAccessMode(AccessMode.READ)
+                                                   .build();
+        CompletableFuture<?>[] prewarmed = new CompletableFuture<?>[connections];
+        for (int i = 0; i < connections; ++i) {
+            AsyncSession session = driver.session(AsyncSession.class, sessionConfig);
+            prewarmed[i] = session.runAsync(Queries.PREWARM_QUERY)
+                                  .thenCompose(ResultCursor::consumeAsync)
+                                  .whenComplete((summary, error) -> session.closeAsync())
+                                  .toCompletableFuture();
+        }
+        return CompletableFuture.allOf(prewarmed);
     }
 
-    private void retrieveMetadata() {
-        try (Session session = driver.session(SessionConfig.builder()
-                                                           .withDefaultAccessMode(AccessMode.READ)
-                                                           .build())) {
-            // Retrieve labels and corresponding counts
-            Function<Record, String> recordToLabel = record -> record.get(0).asString();
+    // Same as the metadata retrieved when loading the database, without any thread waiting for it
+    CompletionStage<DbMetadata> retrieveMetadataAsync() {
+        return retrieveMetadata(driver).toFuture();
+    }
 
-            Set<String> nodeLabels = session.executeRead(tx -> tx
-                    .run(Queries.LABELS_QUERY)
-                    .stream()
-                    .map(recordToLabel)
-                    .collect(Collectors.toCollection(TreeSet::new)));
+    // Run the independent metadata queries concurrently, each on a session of its own
+    private static Mono<DbMetadata> retrieveMetadata(Driver driver) {
+        return Mono.zip(read(driver, QueryHandler::retrieveCounts, TransactionConfig.empty()),
+                        read(driver, tx -> retrieveProperties(tx, Queries.NODE_TYPE_PROPERTIES_QUERY, "nodeType"),
+                             TransactionConfig.empty()),
+                        read(driver, tx -> retrieveProperties(tx, Queries.REL_TYPE_PROPERTIES_QUERY, "relType"),
+                             TransactionConfig.empty()),
+                        read(driver, QueryHandler::retrieveSchema, TransactionConfig.empty()))
+                   .map(parts -> new DbMetadata(
+                           parts.getT1().head(),
+                           parts.getT1().tail(),
+                           parts.getT2(),
+                           parts.getT3(),
+                           parts.getT4()));
+    }
 
-            Set<String> relationLabels = session.executeRead(tx -> tx
-                    .run(Queries.RELATIONSHIP_TYPES_QUERY)
-                    .stream()
-                    .map(recordToLabel)
-                    .collect(Collectors.toCollection(TreeSet::new)));
+    // Run the callback in a session of its own, closed once the callback has completed or been cancelled.
+    // The transaction is retried on transient errors, so the callback should start afresh each time.
+    private static <T> Mono<T> read(Driver driver,
+                                    Function<ReactiveTransactionContext, Mono<T>> callback,
+                                    TransactionConfig config) {
+        SessionConfig sessionConfig = SessionConfig.builder()
+                                                   .withDefaultAccessMode(AccessMode.READ)
+                                                   .build();
+        return Mono.usingWhen(
+                Mono.fromSupplier(() -> driver.session(ReactiveSession.class, sessionConfig)),
+                session -> Mono.from(JdkFlowAdapter.flowPublisherToFlux(session.executeRead(
+                        tx -> JdkFlowAdapter.publisherToFlowPublisher(callback.apply(tx)), config))),
+                session -> JdkFlowAdapter.flowPublisherToFlux(session.close()));
+    }
 
-            Map<String, Integer> nodeCountsByLabel = nodeLabels
-                    .stream()
-                    .collect(Collectors.toMap(
-                            Function.identity(),
-                            label -> session.executeRead(tx ->
-                                    tx.run(Queries.nodeCountByLabelQuery(label))
-                                      .single()
-                                      .get(0)
-                                      .asInt()),
-                            (e1, e2) -> e2,
-                            LinkedHashMap::new));
-
-            Map<String, Integer> relationCountsByLabel = relationLabels
-                    .stream()
-                    .collect(Collectors.toMap(
-                            Function.identity(),
-                            type -> session.executeRead(tx ->
-                                    tx.run(Queries.relationshipCountByTypeQuery(type))
-                                      .single()
-                                      .get(0)
-                                      .asInt()),
-                            (e1, e2) -> e2,
-                            LinkedHashMap::new));
-
-            // Retrieve property keys and types
-
-            Map<String, Map<String, String>> nodePropertiesByLabel = session.executeRead(tx -> tx
-                    .run(Queries.NODE_TYPE_PROPERTIES_QUERY)
+    // Records of a query, pulled from the database only as they are requested downstream
+    private static Flux<Record> records(ReactiveTransactionContext tx, String query, Map<String, Object> parameters) {
+        return Mono.from(JdkFlowAdapter.flowPublisherToFlux(tx.run(query, parameters)))
+                   .flatMapMany(result -> JdkFlowAdapter.flowPublisherToFlux(result.records()));
+    }
+
+    private static Mono<Record> single(ReactiveTransactionContext tx, String query, Map<String, Object> parameters) {
+        return records(tx, query, parameters).single();
+    }
+
+    // Retrieve all labels and relationship types, then all of their counts in a single query
+    private static Mono<Pair<Map<String, Integer>>> retrieveCounts(ReactiveTransactionContext tx) {
+        return single(tx, Queries.LABELS_AND_TYPES_QUERY, Map.of()).flatMap(namesRecord -> {
+            List<String> nodeLabels = namesRecord.get("labels").asList(Value::asString).stream().sorted().toList();
+            List<String> relationLabels = namesRecord.get("types").asList(Value::asString).stream().sorted().toList();
+
+            int[] counts = new int[nodeLabels.size() + relationLabels.size()];
+            Flux<Record> countRecords = counts.length == 0 ?
+                                        Flux.empty() :
+                                        records(tx, Queries.countsQuery(nodeLabels, relationLabels), Map.of());
+            return countRecords
+                    .doOnNext(record -> counts[record.get("index").asInt()] = record.get("count").asInt())
+                    .then(Mono.fromSupplier(() -> {
+                        Map<String, Integer> nodeCountsByLabel = new LinkedHashMap<>();
+                        for (int i = 0; i < nodeLabels.size(); ++i)
+                            nodeCountsByLabel.put(nodeLabels.get(i), counts[i]);
+
+                        Map<String, Integer> relationCountsByLabel = new LinkedHashMap<>();
+                        for (int i = 0; i < relationLabels.size(); ++i)
+                            relationCountsByLabel.put(relationLabels.get(i), counts[nodeLabels.size() + i]);
+
+                        return new Pair<>(nodeCountsByLabel, relationCountsByLabel);
+                    }));
+        });
+    }
+
+    // Retrieve property keys and types
+    private static Mono<Map<String, Map<String, String>>> retrieveProperties(ReactiveTransactionContext tx,
+                                                                             String query,
+                                                                             String typeKey) {
+        return records(tx, query, Map.of())
+                .collect(Collectors.toMap(
+                        record -> {
+                            String label = record.get(typeKey).asString();
+                            return label.substring(2, label.length() - 1);
+                        },
+                        record -> {
+                            Map<String, String> properties = new TreeMap<>();
+                            record.get("properties").values().forEach(property -> {
+                                List<String> propertyPair = property.asList(Value::asString);
+                                properties.putIfAbsent(propertyPair.get(0), propertyPair.get(1));
+                            });
+                            return properties;
+                        }));
+    }
+
+    // Retrieve schema information
+    private static Mono<Graph> retrieveSchema(ReactiveTransactionContext tx) {
+        return single(tx, Queries.SCHEMA_QUERY, Map.of()).map(record -> {
+            Map<Long, Node> schemaNodes = record
+                    .get("nodes")
+                    .asList(Value::asNode)
                     .stream()
                     .collect(Collectors.toMap(
-                            record -> {
-                                String nodeLabel = record.get("nodeType").asString();
-                                return nodeLabel.substring(2, nodeLabel.length() - 1);
-                            },
-                            record -> {
-                                Map<String, String> properties = new TreeMap<>();
-                                record.get("properties").values().forEach(property -> {
-                                    List<String> propertyPair = property.asList(Value::asString);
-                                    properties.putIfAbsent(propertyPair.get(0), propertyPair.get(1));
-                                });
-                                return properties;
-                            })));
-
-            Map<String, Map<String, String>> relationPropertiesByLabel = session.executeRead(tx -> tx
-                    .run(Queries.REL_TYPE_PROPERTIES_QUERY)
+                            org.neo4j.driver.types.Node::id,
+                            node -> new Node(node, true)));
+
+            Set<Relation> schemaRelations = record
+                    .get("relationships")
+                    .asList(Value::asRelationship)
                     .stream()
-                    .collect(Collectors.toMap(
-                            record -> {
-                                String relationLabel = record.get("relType").asString();
-                                return relationLabel.substring(2, relationLabel.length() - 1);
-                            },
-                            record -> {
-                                Map<String, String> properties = new TreeMap<>();
-                                record.get("properties").values().forEach(property -> {
-                                    List<String> propertyPair = property.asList(Value::asString);
-                                    properties.putIfAbsent(propertyPair.get(0), propertyPair.get(1));
-                                });
-                                return properties;
-                            })));
-
-            // Retrieve schema information
-            Graph schemaGraph = session.executeRead(tx -> {
-                Record record = tx.run(Queries.SCHEMA_QUERY).single();
-
-                Map<Long, Node> schemaNodes = record
-                        .get("nodes")
-                        .asList(Value::asNode)
-                        .stream()
-                        .collect(Collectors.toMap(
-                                org.neo4j.driver.types.Node::id,
-                                node -> new Node(node, true)));
-
-                Set<Relation> schemaRelations = record
-                        .get("relationships")
-                        .asList(Value::asRelationship)
-                        .stream()
-                        .map(relationship -> new Relation(relationship, schemaNodes, true))
-                        .collect(Collectors.toSet());
-
-                return new Graph(new HashSet<>(schemaNodes.values()), schemaRelations);
-            });
-
-            meta = new DbMetadata(
-                    nodeCountsByLabel,
-                    relationCountsByLabel,
-                    nodePropertiesByLabel,
-                    relationPropertiesByLabel,
-                    schemaGraph);
-        }
-    }
-
-    Results exactSearch(Canvas canvas) {
+                    .map(relationship -> new Relation(relationship, schemaNodes, true))
+                    .collect(Collectors.toSet());
+
+            return new Graph(new HashSet<>(schemaNodes.values()), schemaRelations);
+        });
+    }
+
+    // Prepare the search for the pattern on the canvas, which is read right away, so on the application thread.
+    // The search itself is run on a worker thread once submitted.
+    ExactSearch exactSearch(Canvas canvas) {
         Graph queryGraph = new Graph(canvas);
-        String query = translator.translate(queryGraph, false);
-        System.out.println(query);
-
-        try (Session session = driver.session(SessionConfig.builder()
-                                                           .withDefaultAccessMode(AccessMode.READ)
-                                                           .build())) {
-
-            return session.executeRead(tx -> {
-                Result result = tx.run(query);
-                if (!result.hasNext())
-                    throw new EmptyResultException();
-                Record record = tx.run(query).single();
-
-                Map<Long, Node> nodes = record
-                        .get("nodes")
-                        .asList(Value::asNode)
-                        .stream()
-                        .collect(Collectors.toMap(
-                                org.neo4j.driver.types.Node::id,
-                                node -> new Node(node, false)));
-
-                Set<Relation> relations = record
-                        .get("relationships")
-                        .asList(Value::asRelationship)
-                        .stream()
-                        .map(relationship -> new Relation(relationship, nodes, false))
-                        .collect(Collectors.toSet());
-
-                Graph resultGraph = new Graph(new HashSet<>(nodes.values()), relations);
-                if (resultGraph.isEmpty())
-                    throw new EmptyResultException();
-
-                List<Pair<List<Long>>> resultIds = new ArrayList<>(record
-                        .get("resultIds")
-                        .asList(value -> {
-                            List<Value> pairList = value.asList(Function.identity());
-                            List<Long> nodeIds = pairList.get(0).asList(Value::asLong);
-                            List<Long> relationIds = pairList.get(1).asList(Value::asLong);
-                            return new Pair<>(nodeIds, relationIds);
-                        }));
+        ParameterizedQuery query = translator.translateParameterized(queryGraph);
+        return new ExactSearch(query, PatternFingerprint.of(queryGraph));
+    }
 
-                return new Results(resultGraph, resultIds);
-            });
+    // Prepare the search for all the matches of the pattern on the canvas, on the application thread
+    PagedSearch pagedSearch(Canvas canvas) {
+        Graph queryGraph = new Graph(canvas);
+        ParameterizedQuery query = translator.translatePaged(queryGraph, PAGE_SIZE);
+        return new PagedSearch(query, PatternFingerprint.of(queryGraph), PAGE_SIZE);
+    }
+
+    // Same as the exact search of a pattern, without any thread waiting for the database
+    CompletionStage<Results> exactSearchAsync(Graph queryGraph) {
+        ParameterizedQuery query;
+        try {
+            query = translator.translateParameterized(queryGraph);
+        }
+        catch (Graph.BadTopologyException e) {
+            return CompletableFuture.failedStage(e);
         }
+        return search(query, PatternFingerprint.of(queryGraph), message -> {}).toFuture();
+    }
+
+    void submit(SearchTask<?> search) {
+        searcher.execute(search);
+    }
+
+    // The results of a search, from the cache if the pattern has been searched for lately.
+    // Records are decoded off the threads of the driver as they arrive, the driver only being asked for
+    // the next batch of them once the decoder is through with the previous one. The entities are fetched
+    // afterwards, each only once. Cancelling the subscription stops the query on the server.
+    private Mono<Results> search(ParameterizedQuery query, PatternFingerprint fingerprint, Consumer<String> progress) {
+        return Mono.defer(() -> {
+            Results cached = resultCache.get(fingerprint);
+            if (cached != null)
+                return Mono.just(cached);
+
+            System.out.println(query);
+            int batch = fetchSize;
+            return read(driver, tx -> {
+                           ResultDecoder decoder = new ResultDecoder();
+                           int[] recordCount = {0};
+                           return records(tx, query.template(), query.parameters())
+                                   .publishOn(Schedulers.parallel(), batch)
+                                   .doOnNext(record -> {
+                                       decoder.accept(record);
+                                       progress.accept("Received " + ++recordCount[0] + " records...");
+                                   })
+                                   .then(Mono.defer(() -> {
+                                       ParameterizedQuery entities = decoder.entitiesQuery();
+                                       if (entities == null)
+                                           return Mono.just(decoder);
+                                       progress.accept("Fetching the matched entities...");
+                                       return single(tx, entities.template(), entities.parameters())
+                                               .publishOn(Schedulers.parallel())
+                                               .map(record -> {
+                                                   decoder.accept(record);
+                                                   return decoder;
+                                               });
+                                   }))
+                                   .map(decoded -> {
+                                       progress.accept("Building the results...");
+                                       return decoded.finish();
+                                   });
+                       },
+                       searchConfig())
+                    .doOnNext(results -> resultCache.put(fingerprint, results));
+        });
+    }
+
+    private TransactionConfig searchConfig() {
+        Duration timeout = searchTimeout;
+        return timeout == null ? TransactionConfig.empty() : TransactionConfig.builder().withTimeout(timeout).build();
+    }
+
+    // Time after which the database aborts a search, null for the server default
+    public Duration getSearchTimeout() {
+        return searchTimeout;
+    }
+    public void setSearchTimeout(Duration searchTimeout) {
+        this.searchTimeout = searchTimeout;
     }
 
     public QueryBuilder getTranslator() {
@@ -195,6 +364,159 @@ public class QueryHandler {
         return meta;
     }
 
+    // Called from the revalidation thread after the metadata has been replaced
+    void setOnMetadataChanged(Runnable onMetadataChanged) {
+        this.onMetadataChanged = onMetadataChanged;
+    }
+
+    // Task reading from the database in a session of its own, which only the worker thread ever touches.
+    // Cancelling the task interrupts the worker, upon which the driver terminates the connection it is waiting on,
+    // so the query is stopped on the server, and the session is then closed by the worker itself.
+    abstract class SearchTask<T> extends Task<T> {
+
+        // Answers null if the task has been cancelled before the query was run
+        protected <R> R read(TransactionCallback<R> callback) {
+            if (isCancelled())
+                return null;
+            try (Session session = driver.session(SessionConfig.builder()
+                                                               .withDefaultAccessMode(AccessMode.READ)
+                                                               .build())) {
+                // No retry once cancelled
+                return session.executeRead(tx -> isCancelled() ? null : callback.execute(tx), searchConfig());
+            }
+        }
+    }
+
+    // Search for the matches of a pattern, which can be cancelled while the database is still busy with it
+    class ExactSearch extends SearchTask<Results> {
+
+        private final ParameterizedQuery query;
+        private final PatternFingerprint fingerprint;
+
+        private ExactSearch(ParameterizedQuery query, PatternFingerprint fingerprint) {
+            this.query = query;
+            this.fingerprint = fingerprint;
+        }
+
+        // Waits for the same search as exactSearchAsync, which the cancellation of the task cancels in turn
+        @Override
+        protected Results call() {
+            updateMessage("Waiting for the database...");
+            CompletableFuture<Results> results = search(query, fingerprint, this::updateMessage).toFuture();
+            try {
+                return results.get();
+            }
+            catch (InterruptedException e) {
+                results.cancel(true);
+                return null;
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause)
+                    throw cause;
+                throw new CompletionException(e.getCause());
+            }
+        }
+    }
+
+    // Search for all the matches of a pattern, fetched a page at a time.
+    // Pages are fetched one after the other, each by a task of its own, and add up in the results,
+    // which are cached once all the pages have been fetched, like those of an exact search.
+    class PagedSearch {
+
+        private final ParameterizedQuery query;
+        private final PatternFingerprint fingerprint;
+        private final int pageSize;
+
+        // Only accessed by one page task at a time
+        private final ResultDecoder decoder = new ResultDecoder();
+        private long from = 0;  // Anchor from which the next page starts
+        private int skip = 0;  // Matches of that anchor already fetched
+        private volatile boolean exhausted = false;
+
+        private PagedSearch(ParameterizedQuery query, PatternFingerprint fingerprint, int pageSize) {
+            this.query = query;
+            this.fingerprint = fingerprint;
+            this.pageSize = pageSize;
+        }
+
+        boolean hasMore() {
+            return !exhausted;
+        }
+
+        NextPage nextPage() {
+            return new NextPage();
+        }
+
+        class NextPage extends SearchTask<Page> {
+
+            @Override
+            protected Page call() {
+                int firstNew = decoder.matchCount();
+
+                // All the matches at once when the pattern has been searched for lately
+                if (firstNew == 0) {
+                    Results cached = resultCache.get(fingerprint);
+                    if (cached != null) {
+                        exhausted = true;
+                        return new Page(cached, 0, false);
+                    }
+                }
+
+                // Go past the pages whose anchors match nothing
+                while (!exhausted && decoder.matchCount() == firstNew) {
+                    ParameterizedQuery page = query.with(QueryBuilder.FROM_PARAMETER, from)
+                                                   .with(QueryBuilder.SKIP_PARAMETER, skip);
+                    if (firstNew == 0 && from == 0)
+                        System.out.println(page);
+                    updateMessage(firstNew == 0 ? "Waiting for the database..." : "Loading more matches...");
+
+                    // The entities of the page that earlier pages have not brought are fetched in the same transaction.
+                    // The decoder is only updated afterwards, as the transaction may be retried.
+                    List<Record> records = read(tx -> {
+                        Record pageRecord = tx.run(page.template(), page.parameters()).single();
+                        ParameterizedQuery entities = pageRecord.containsKey("nodes") ?
+                                                      null :  // Pages of single nodes come with them
+                                                      decoder.entitiesQuery(ResultDecoder.matchesOf(pageRecord));
+                        if (entities == null)
+                            return List.of(pageRecord);
+                        return List.of(pageRecord, tx.run(entities.template(), entities.parameters()).single());
+                    });
+                    if (records == null || isCancelled())
+                        return null;
+
+                    records.forEach(decoder::accept);
+                    advance(records.get(0));
+                }
+
+                updateMessage("Building the results...");
+                Results results = decoder.finish();
+                if (exhausted)
+                    resultCache.put(fingerprint, results);
+                return new Page(results, firstNew, !exhausted);
+            }
+
+            // A full page may have stopped within the matches of its last anchor, so the next one resumes there
+            private void advance(Record record) {
+                List<Long> matchAnchors = record.get("matchAnchors").asList(Value::asLong);
+                if (matchAnchors.size() == pageSize) {
+                    long lastMatchAnchor = Collections.max(matchAnchors);
+                    int given = Collections.frequency(matchAnchors, lastMatchAnchor);
+                    skip = lastMatchAnchor == from ? skip + given : given;
+                    from = lastMatchAnchor;
+                }
+                else if (record.get("anchorCount").asInt() < pageSize)
+                    exhausted = true;
+                else {
+                    from = record.get("lastAnchor").asLong() + 1;
+                    skip = 0;
+                }
+            }
+        }
+    }
+
+    // All the results of a paged search so far, the matches from firstNew on being those of the latest page
+    record Page(Results results, int firstNew, boolean hasMore) {}
+
     public record Results(Graph graph, List<Pair<List<Long>>> ids) implements Mappable {
 
         public Results {
@@ -0,0 +1,87 @@
+package hkust.edu.visualneo;
+
+import hkust.edu.visualneo.utils.backend.*;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.types.Relationship;
+
+import java.util.*;
+
+// Incrementally turns the records of a search into backend entities as they arrive,
+// remembering those already decoded so that they need not be fetched again
+class ResultDecoder {
+
+    private final Map<Long, Node> nodes = new HashMap<>();
+    private final Map<Long, Relation> relations = new HashMap<>();
+    private final List<Pair<List<Long>>> ids = new ArrayList<>();
+
+    // Records either hold the entities and a list of matches, only a list of matches (a page),
+    // only the identifiers of a single match, or only entities
+    void accept(Record record) {
+        if (record.containsKey("nodes"))
+            for (Value value : record.get("nodes").values())
+                decodeNode(value.asNode());
+
+        if (record.containsKey("relationships"))
+            for (Value value : record.get("relationships").values())
+                decodeRelation(value.asRelationship());
+
+        if (record.containsKey("resultIds"))
+            ids.addAll(matchesOf(record));
+        else if (record.containsKey("nodeIds"))
+            ids.add(new Pair<>(record.get("nodeIds").asList(Value::asLong),
+                               record.get("relationshipIds").asList(Value::asLong)));
+    }
+
+    static List<Pair<List<Long>>> matchesOf(Record record) {
+        return record.get("resultIds").asList(value -> new Pair<>(value.get(0).asList(Value::asLong),
+                                                                  value.get(1).asList(Value::asLong)));
+    }
+
+    // Query fetching the entities that the given matches refer to and that have not been decoded yet,
+    // each only once, or null if there are none
+    ParameterizedQuery entitiesQuery(Collection<Pair<List<Long>>> matches) {
+        Set<Long> nodeIds = new LinkedHashSet<>();
+        Set<Long> relationIds = new LinkedHashSet<>();
+        for (Pair<List<Long>> match : matches) {
+            for (Long id : match.head())
+                if (!nodes.containsKey(id))
+                    nodeIds.add(id);
+            for (Long id : match.tail())
+                if (!relations.containsKey(id))
+                    relationIds.add(id);
+        }
+        if (nodeIds.isEmpty() && relationIds.isEmpty())
+            return null;
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put(Queries.NODE_IDS_PARAMETER, List.copyOf(nodeIds));
+        parameters.put(Queries.RELATIONSHIP_IDS_PARAMETER, List.copyOf(relationIds));
+        return new ParameterizedQuery(Queries.ENTITIES_QUERY, parameters);
+    }
+
+    ParameterizedQuery entitiesQuery() {
+        return entitiesQuery(ids);
+    }
+
+    int matchCount() {
+        return ids.size();
+    }
+
+    // May be called again after more records have been accepted, answering everything decoded so far
+    QueryHandler.Results finish() {
+        if (nodes.isEmpty())
+            throw new QueryHandler.EmptyResultException();
+
+        return new QueryHandler.Results(new Graph(nodes.values(), relations.values()), List.copyOf(ids));
+    }
+
+    private void decodeNode(org.neo4j.driver.types.Node node) {
+        nodes.computeIfAbsent(node.id(), id -> new Node(node, false));
+    }
+
+    // Relations attach themselves to their end nodes, so each one must be constructed only once
+    private void decodeRelation(Relationship relationship) {
+        relations.computeIfAbsent(relationship.id(), id -> new Relation(relationship, nodes, false));
+    }
+}
@@ -2,6 +2,7 @@ package hkust.edu.visualneo;
 
 import hkust.edu.visualneo.utils.backend.*;
 import hkust.edu.visualneo.utils.frontend.*;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
@@ -39,13 +40,20 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.time.*;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static org.neo4j.driver.Values.value;
 
 public class VisualNeoController {
 
+    // Whether the exact search fetches all matches a page at a time, or at most the first hundred at once
+    private static final boolean PAGED_SEARCH =
+            Boolean.parseBoolean(System.getProperty("visualneo.pagedSearch", "true"));
+
     public final QueryHandler queryHandler = new QueryHandler();
+    // Keeps the query text in sync with the construct canvas
+    private TranslationService translationService;
 
     @FXML
     private Button btn_exact_search;
@@ -114,7 +122,13 @@ public class VisualNeoController {
     @FXML
     private Tab tab_result_record;
     @FXML
+    private ScrollPane scrollpane_record;
+    @FXML
     private VBox vbox_record;
+    // Latest paged search, whose next page is loaded when the match list is scrolled to its end
+    private QueryHandler.PagedSearch pagedSearch;
+    private QueryHandler.PagedSearch.NextPage pageTask;
+    private Button btn_load_more;
     @FXML
     private VBox vbox_basic_patterns;
     @FXML
@@ -143,8 +157,9 @@ public class VisualNeoController {
      */
     @FXML
     private void initialize() throws Exception {
+        queryHandler.setOnMetadataChanged(() -> Platform.runLater(this::updateUIWithMetaInfo));
         constructCanvas.setType(Canvas.CanvasType.MODIFIABLE);
-        constructCanvas.addListener(observable -> queryHandler.getTranslator().update(new Graph(constructCanvas)));
+        translationService = new TranslationService(constructCanvas, queryHandler.getTranslator());
         constructCanvas.getHighlights().addListener((SetChangeListener<GraphElement>) c -> {
             GraphElement temp = constructCanvas.getSingleHighlight();
             if (temp != null)
@@ -171,6 +186,7 @@ public class VisualNeoController {
 
 
         resultCanvas.setType(Canvas.CanvasType.NAVIGABLE);
+        resultCanvas.setIncrementalLayout(true);
         resultCanvas.getHighlights().addListener((SetChangeListener<GraphElement>) c -> {
             GraphElement temp = resultCanvas.getSingleHighlight();
             if (temp != null)
@@ -279,6 +295,14 @@ public class VisualNeoController {
             }
         });
 
+        // Load the next page of matches once the match list has been scrolled to its end
+        btn_load_more = new Button("Load more matches");
+        btn_load_more.setOnAction(e -> loadNextPage());
+        scrollpane_record.vvalueProperty().addListener((observable, oldValue, newValue) -> {
+            if (newValue.doubleValue() >= scrollpane_record.getVmax())
+                loadNextPage();
+        });
+
         // Bind the query code display textarea
         textarea_query.setWrapText(true);
         textarea_query.textProperty().bind(queryHandler.getTranslator().translationProperty());
@@ -379,35 +403,127 @@ public class VisualNeoController {
      */
     @FXML
     private void handleExactSearch() {
-        QueryHandler.Results results = null;
         try {
-            results = queryHandler.exactSearch(constructCanvas);
+            if (PAGED_SEARCH) {
+                if (pageTask != null)
+                    pageTask.cancel();
+                pagedSearch = queryHandler.pagedSearch(constructCanvas);
+                pageTask = pagedSearch.nextPage();
+                runSearch(pageTask, this::showPage);
+            }
+            else
+                runSearch(queryHandler.exactSearch(constructCanvas), this::showResults);
         } catch (Graph.BadTopologyException e) {
             Alert alert = new Alert(Alert.AlertType.ERROR);
             alert.setTitle("Exact Search Error");
             alert.setHeaderText("Cannot perform the exact search!");
             alert.setContentText(e.getMessage());
             alert.showAndWait();
-        } catch (QueryHandler.EmptyResultException e){
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Exact Search Error");
+        }
+    }
+
+    // Run the search in the background with a progress dialog, which cancels it when closed before it ends
+    private <T> void runSearch(QueryHandler.SearchTask<T> search, Consumer<T> onResults) {
+        Alert progress = new Alert(Alert.AlertType.NONE, null, ButtonType.CANCEL);
+        progress.setTitle("Exact Search");
+        progress.setHeaderText("Searching for the pattern...");
+        progress.setGraphic(new ProgressIndicator());
+        progress.contentTextProperty().bind(search.messageProperty());
+        progress.setOnHidden(e -> search.cancel());
+
+        search.setOnSucceeded(e -> {
+            progress.close();
+            onResults.accept(search.getValue());
+        });
+        search.setOnCancelled(e -> progress.close());
+        search.setOnFailed(e -> {
+            progress.close();
+            showSearchError(search.getException());
+        });
+
+        btn_exact_search.disableProperty().bind(search.runningProperty());
+        queryHandler.submit(search);
+        progress.show();
+    }
+
+    private void showSearchError(Throwable exception) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Exact Search Error");
+        if (exception instanceof QueryHandler.EmptyResultException)
             alert.setHeaderText("There is no matching record!");
-            alert.setContentText(e.getMessage());
-            alert.showAndWait();
+        else {
+            System.out.println("Error when performing the exact search");
+            exception.printStackTrace();
+            alert.setHeaderText("Cannot perform the exact search!");
         }
-        if (results != null) {
-            //resultCanvas.clearElements();
+        alert.setContentText(exception.getMessage());
+        alert.showAndWait();
+    }
+
+    // Fetch the next page of the latest paged search in the background, unless one is being fetched already
+    private void loadNextPage() {
+        if (pagedSearch == null || !pagedSearch.hasMore() || (pageTask != null && !pageTask.isDone()))
+            return;
+
+        QueryHandler.PagedSearch search = pagedSearch;
+        QueryHandler.PagedSearch.NextPage task = search.nextPage();
+        task.setOnSucceeded(e -> {
+            if (search == pagedSearch)
+                showPage(task.getValue());
+        });
+        task.setOnFailed(e -> {
+            btn_load_more.setDisable(false);
+            showSearchError(task.getException());
+        });
+        pageTask = task;
+        btn_load_more.setDisable(true);
+        btn_load_more.textProperty().bind(task.messageProperty());
+        queryHandler.submit(task);
+    }
+
+    private void showResults(QueryHandler.Results results) {
+        //resultCanvas.clearElements();
+        resultCanvas.loadGraph(results.graph());
+        vbox_record.getChildren().clear();
+        appendMatches(results.ids(), 0);
+    }
+
+    // Later pages only add the elements and the list entries of their new matches, around the vertices already shown
+    private void showPage(QueryHandler.Page page) {
+        QueryHandler.Results results = page.results();
+        if (page.firstNew() == 0) {
             resultCanvas.loadGraph(results.graph());
             vbox_record.getChildren().clear();
-            for (int i = 0; i < results.ids().size(); i++) {
-                Pair<List<Long>> match = results.ids().get(i);
-                MatchRecord record = new MatchRecord(match, i+1);
-                record.setOnMouseEntered(e -> handleMouseEnterButton(e));
-                record.setOnMouseExited(e -> handleMouseLeaveButton(e));
-                record.setOnMouseClicked(click_match_handler);
-                vbox_record.getChildren().add(record);
-                if (i < results.ids().size() - 1) vbox_record.getChildren().add(new Separator());
+        }
+        else {
+            Set<Long> nodeIds = new HashSet<>();
+            Set<Long> relationIds = new HashSet<>();
+            for (Pair<List<Long>> match : results.ids().subList(page.firstNew(), results.ids().size())) {
+                nodeIds.addAll(match.head());
+                relationIds.addAll(match.tail());
             }
+            resultCanvas.appendGraph(results.graph(), nodeIds, relationIds);
+            vbox_record.getChildren().remove(btn_load_more);
+        }
+        appendMatches(results.ids(), page.firstNew());
+
+        if (page.hasMore()) {
+            btn_load_more.textProperty().unbind();
+            btn_load_more.setText("Load more matches");
+            btn_load_more.setDisable(false);
+            vbox_record.getChildren().add(btn_load_more);
+        }
+    }
+
+    private void appendMatches(List<Pair<List<Long>>> ids, int from) {
+        for (int i = from; i < ids.size(); i++) {
+            if (i > 0) vbox_record.getChildren().add(new Separator());
+            Pair<List<Long>> match = ids.get(i);
+            MatchRecord record = new MatchRecord(match, i+1);
+            record.setOnMouseEntered(e -> handleMouseEnterButton(e));
+            record.setOnMouseExited(e -> handleMouseLeaveButton(e));
+            record.setOnMouseClicked(click_match_handler);
+            vbox_record.getChildren().add(record);
         }
     }
 
@@ -762,8 +878,7 @@ public class VisualNeoController {
         try {
             if (selectedFile == null) return;
             Graph pattern_graph = parseUserPatternFromFile(selectedFile);
-            constructCanvas.clearElements();
-            constructCanvas.loadGraph(pattern_graph);
+            constructCanvas.loadGraph(pattern_graph);  // Clears the canvas first
         } catch (FileNotFoundException fe) {
         } catch (Exception e) {
             Alert alert = new Alert(Alert.AlertType.ERROR);
@@ -1,29 +1,62 @@
 package hkust.edu.visualneo.utils.backend;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
-public record DbMetadata(
-        Map<String, Integer> nodeCountsByLabel,
-        Map<String, Integer> relationCountsByLabel,
-        Map<String, Map<String, String>> nodePropertiesByLabel,
-        Map<String, Map<String, String>> relationPropertiesByLabel,
-        Graph schemaGraph) implements Mappable {
+// Immutable description of a database. Equality only depends on the retrieved metadata,
+// the lookups derived from it being computed once at construction.
+public final class DbMetadata implements Mappable {
 
-    public DbMetadata {
-        Objects.requireNonNull(nodeCountsByLabel);
-        Objects.requireNonNull(relationCountsByLabel);
-        Objects.requireNonNull(nodePropertiesByLabel);
-        Objects.requireNonNull(relationPropertiesByLabel);
-        Objects.requireNonNull(schemaGraph);
+    private final Map<String, Integer> nodeCountsByLabel;
+    private final Map<String, Integer> relationCountsByLabel;
+    private final Map<String, Map<String, String>> nodePropertiesByLabel;
+    private final Map<String, Map<String, String>> relationPropertiesByLabel;
+    private final Graph schemaGraph;
+
+    private final SchemaIndex index;
+
+    public DbMetadata(Map<String, Integer> nodeCountsByLabel,
+                      Map<String, Integer> relationCountsByLabel,
+                      Map<String, Map<String, String>> nodePropertiesByLabel,
+                      Map<String, Map<String, String>> relationPropertiesByLabel,
+                      Graph schemaGraph) {
+        this.nodeCountsByLabel = Objects.requireNonNull(nodeCountsByLabel);
+        this.relationCountsByLabel = Objects.requireNonNull(relationCountsByLabel);
+        this.nodePropertiesByLabel = Objects.requireNonNull(nodePropertiesByLabel);
+        this.relationPropertiesByLabel = Objects.requireNonNull(relationPropertiesByLabel);
+        this.schemaGraph = Objects.requireNonNull(schemaGraph);
+        index = SchemaIndex.of(nodeCountsByLabel,
+                               relationCountsByLabel,
+                               nodePropertiesByLabel,
+                               relationPropertiesByLabel,
+                               schemaGraph);
+    }
+
+    public Map<String, Integer> nodeCountsByLabel() {
+        return nodeCountsByLabel;
+    }
+
+    public Map<String, Integer> relationCountsByLabel() {
+        return relationCountsByLabel;
+    }
+
+    public Map<String, Map<String, String>> nodePropertiesByLabel() {
+        return nodePropertiesByLabel;
+    }
+
+    public Map<String, Map<String, String>> relationPropertiesByLabel() {
+        return relationPropertiesByLabel;
+    }
+
+    public Graph schemaGraph() {
+        return schemaGraph;
     }
 
     public int nodeCount() {
-        return nodeCountsByLabel.values().stream().reduce(0, Integer::sum);
+        return index.nodeCount();
     }
 
     public int relationCount() {
-        return relationCountsByLabel.values().stream().reduce(0, Integer::sum);
+        return index.relationCount();
     }
 
     public int nodeCountOf(String nodeLabel) {
@@ -43,87 +76,35 @@ public record DbMetadata(
     }
 
     public Collection<String> sourcesOf(String relationLabel) {
-        if (!relationLabels().contains(relationLabel))
-            return Collections.emptySet();
-        return schemaGraph.getRelations()
-                .stream()
-                .filter(relation -> Objects.equals(relation.getLabel(), relationLabel))
-                .map(relation -> relation.start.getLabel())
-                .collect(Collectors.toCollection(TreeSet::new));
+        return index.sourcesOf().getOrDefault(relationLabel, Collections.emptySortedSet());
     }
 
     public Collection<String> targetsOf(String relationLabel) {
-        if (!relationLabels().contains(relationLabel))
-            return Collections.emptySet();
-        return schemaGraph.getRelations()
-                .stream()
-                .filter(relation -> Objects.equals(relation.getLabel(), relationLabel))
-                .map(relation -> relation.end.getLabel())
-                .collect(Collectors.toCollection(TreeSet::new));
+        return index.targetsOf().getOrDefault(relationLabel, Collections.emptySortedSet());
     }
 
     public Collection<String> relationsFrom(String sourceLabel) {
-        if (!nodeLabels().contains(sourceLabel))
-            return Collections.emptySet();
-        return schemaGraph.getRelations()
-                .stream()
-                .filter(relation -> Objects.equals(relation.start.getLabel(), sourceLabel))
-                .map(relation -> relation.getLabel())
-                .collect(Collectors.toCollection(TreeSet::new));
+        return index.relationsFrom().getOrDefault(sourceLabel, Collections.emptySortedSet());
     }
 
     public Collection<String> targetsFrom(String sourceLabel) {
-        if (!nodeLabels().contains(sourceLabel))
-            return Collections.emptySet();
-        return schemaGraph.getRelations()
-                .stream()
-                .filter(relation -> Objects.equals(relation.start.getLabel(), sourceLabel))
-                .map(relation -> relation.end.getLabel())
-                .collect(Collectors.toCollection(TreeSet::new));
+        return index.targetsFrom().getOrDefault(sourceLabel, Collections.emptySortedSet());
     }
 
     public Collection<String> sourcesTo(String targetLabel) {
-        if (!nodeLabels().contains(targetLabel))
-            return Collections.emptySet();
-        return schemaGraph.getRelations()
-                .stream()
-                .filter(relation -> Objects.equals(relation.end.getLabel(), targetLabel))
-                .map(relation -> relation.start.getLabel())
-                .collect(Collectors.toCollection(TreeSet::new));
+        return index.sourcesTo().getOrDefault(targetLabel, Collections.emptySortedSet());
     }
 
     public Collection<String> relationsTo(String targetLabel) {
-        if (!nodeLabels().contains(targetLabel))
-            return Collections.emptySet();
-        return schemaGraph.getRelations()
-                .stream()
-                .filter(relation -> Objects.equals(relation.end.getLabel(), targetLabel))
-                .map(relation -> relation.getLabel())
-                .collect(Collectors.toCollection(TreeSet::new));
+        return index.relationsTo().getOrDefault(targetLabel, Collections.emptySortedSet());
     }
 
     public Map<String, String> nodeProperties() {
-        return nodePropertiesByLabel
-                .values()
-                .stream()
-                .flatMap(map -> map.entrySet().stream())
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        Map.Entry::getValue,
-                        (e1, e2) -> e2,
-                        TreeMap::new));
+        return index.nodeProperties();
     }
 
     public Map<String, String> relationProperties() {
-        return relationPropertiesByLabel
-                .values()
-                .stream()
-                .flatMap(map -> map.entrySet().stream())
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        Map.Entry::getValue,
-                        (e1, e2) -> e2,
-                        TreeMap::new));
+        return index.relationProperties();
     }
 
     public Map<String, String> nodePropertiesOf(String nodeLabel) {
@@ -134,6 +115,28 @@ public record DbMetadata(
         return relationPropertiesByLabel.get(relationLabel);
     }
 
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof DbMetadata meta))
+            return false;
+        return nodeCountsByLabel.equals(meta.nodeCountsByLabel) &&
+               relationCountsByLabel.equals(meta.relationCountsByLabel) &&
+               nodePropertiesByLabel.equals(meta.nodePropertiesByLabel) &&
+               relationPropertiesByLabel.equals(meta.relationPropertiesByLabel) &&
+               schemaGraph.equals(meta.schemaGraph);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(nodeCountsByLabel,
+                            relationCountsByLabel,
+                            nodePropertiesByLabel,
+                            relationPropertiesByLabel,
+                            schemaGraph);
+    }
+
     @Override
     public String toString() {
         return new TreePrinter().print(getName(), toMap());
@@ -172,4 +175,79 @@ public record DbMetadata(
 
         return map;
     }
+
+    // Lookups derived from the schema graph and the property maps, computed once per metadata
+    private record SchemaIndex(
+            int nodeCount,
+            int relationCount,
+            Map<String, SortedSet<String>> sourcesOf,
+            Map<String, SortedSet<String>> targetsOf,
+            Map<String, SortedSet<String>> relationsFrom,
+            Map<String, SortedSet<String>> targetsFrom,
+            Map<String, SortedSet<String>> sourcesTo,
+            Map<String, SortedSet<String>> relationsTo,
+            Map<String, String> nodeProperties,
+            Map<String, String> relationProperties) {
+
+        static SchemaIndex of(Map<String, Integer> nodeCountsByLabel,
+                              Map<String, Integer> relationCountsByLabel,
+                              Map<String, Map<String, String>> nodePropertiesByLabel,
+                              Map<String, Map<String, String>> relationPropertiesByLabel,
+                              Graph schemaGraph) {
+            Map<String, SortedSet<String>> sourcesOf = new HashMap<>();
+            Map<String, SortedSet<String>> targetsOf = new HashMap<>();
+            Map<String, SortedSet<String>> relationsFrom = new HashMap<>();
+            Map<String, SortedSet<String>> targetsFrom = new HashMap<>();
+            Map<String, SortedSet<String>> sourcesTo = new HashMap<>();
+            Map<String, SortedSet<String>> relationsTo = new HashMap<>();
+
+            for (Relation relation : schemaGraph.getRelations()) {
+                String label = relation.getLabel();
+                String sourceLabel = relation.start.getLabel();
+                String targetLabel = relation.end.getLabel();
+
+                // Only labels known from the counts are answered, as before
+                if (relationCountsByLabel.containsKey(label)) {
+                    add(sourcesOf, label, sourceLabel);
+                    add(targetsOf, label, targetLabel);
+                }
+                if (nodeCountsByLabel.containsKey(sourceLabel)) {
+                    add(relationsFrom, sourceLabel, label);
+                    add(targetsFrom, sourceLabel, targetLabel);
+                }
+                if (nodeCountsByLabel.containsKey(targetLabel)) {
+                    add(sourcesTo, targetLabel, sourceLabel);
+                    add(relationsTo, targetLabel, label);
+                }
+            }
+
+            return new SchemaIndex(
+                    nodeCountsByLabel.values().stream().reduce(0, Integer::sum),
+                    relationCountsByLabel.values().stream().reduce(0, Integer::sum),
+                    freeze(sourcesOf),
+                    freeze(targetsOf),
+                    freeze(relationsFrom),
+                    freeze(targetsFrom),
+                    freeze(sourcesTo),
+                    freeze(relationsTo),
+                    merge(nodePropertiesByLabel),
+                    merge(relationPropertiesByLabel));
+        }
+
+        private static void add(Map<String, SortedSet<String>> index, String key, String value) {
+            index.computeIfAbsent(key, k -> new TreeSet<>()).add(value);
+        }
+
+        private static Map<String, SortedSet<String>> freeze(Map<String, SortedSet<String>> index) {
+            index.replaceAll((key, values) -> Collections.unmodifiableSortedSet(values));
+            return Collections.unmodifiableMap(index);
+        }
+
+        // Later labels win when they disagree on the type of a property
+        private static Map<String, String> merge(Map<String, Map<String, String>> propertiesByLabel) {
+            SortedMap<String, String> merged = new TreeMap<>();
+            propertiesByLabel.values().forEach(merged::putAll);
+            return Collections.unmodifiableSortedMap(merged);
+        }
+    }
 }
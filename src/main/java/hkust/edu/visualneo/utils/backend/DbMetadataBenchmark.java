@@ -0,0 +1,192 @@
+package hkust.edu.visualneo.utils.backend;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+// Compares the schema lookups of DbMetadata with the stream scans they replaced, on a synthetic schema.
+// Only compiled and run by the "benchmark" profile:
+//   mvn clean javafx:run -Pbenchmark
+// The sizes of the schema can be given as the numbers of labels, relationship types and schema relationships:
+//   mvn clean javafx:run -Pbenchmark -Djavafx.args="200 100 2000"
+public class DbMetadataBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int PASSES = 200;
+    private static final int PROPERTIES_PER_LABEL = 8;
+
+    public static void main(String[] args) {
+        int labelCount = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        int typeCount = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int schemaRelationCount = args.length > 2 ? Integer.parseInt(args[2]) : 400;
+
+        DbMetadata meta = schema(labelCount, typeCount, schemaRelationCount);
+        List<String> labels = new ArrayList<>(meta.nodeLabels());
+        List<String> types = new ArrayList<>(meta.relationLabels());
+
+        System.out.printf("%d labels, %d relationship types, %d schema relationships%n",
+                          labelCount, typeCount, schemaRelationCount);
+
+        // Both ways must answer the same before their cost is worth comparing
+        for (String label : labels)
+            if (!meta.relationsFrom(label).equals(ScanLookups.relationsFrom(meta, label)) ||
+                !meta.sourcesTo(label).equals(ScanLookups.sourcesTo(meta, label)))
+                throw new IllegalStateException("Lookups of " + label + " differ");
+        for (String type : types)
+            if (!meta.sourcesOf(type).equals(ScanLookups.sourcesOf(meta, type)))
+                throw new IllegalStateException("Lookups of " + type + " differ");
+        if (!meta.nodeProperties().equals(ScanLookups.nodeProperties(meta)))
+            throw new IllegalStateException("Merged properties differ");
+
+        long sink = 0;
+        for (int round = 1; round <= ROUNDS; ++round) {
+            long start = System.nanoTime();
+            for (int pass = 0; pass < PASSES; ++pass)
+                sink += adjacency(meta, labels, types, true);
+            long scanned = System.nanoTime();
+            for (int pass = 0; pass < PASSES; ++pass)
+                sink += adjacency(meta, labels, types, false);
+            long indexed = System.nanoTime();
+            for (int pass = 0; pass < PASSES; ++pass)
+                sink += ScanLookups.nodeProperties(meta).size() + ScanLookups.relationProperties(meta).size();
+            long merged = System.nanoTime();
+            for (int pass = 0; pass < PASSES; ++pass)
+                sink += meta.nodeProperties().size() + meta.relationProperties().size();
+            long cached = System.nanoTime();
+
+            double adjacencyOps = PASSES * (4.0 * labels.size() + 2.0 * types.size());
+            double propertyOps = PASSES * 2.0;
+            System.out.printf("Round %d: adjacency %.1f ns/op before, %.1f ns/op after; " +
+                              "merged properties %.1f ns/op before, %.1f ns/op after%n",
+                              round,
+                              (scanned - start) / adjacencyOps,
+                              (indexed - scanned) / adjacencyOps,
+                              (merged - indexed) / propertyOps,
+                              (cached - merged) / propertyOps);
+        }
+        // Keep the lookups from being optimized away
+        System.out.println("Checksum: " + sink);
+    }
+
+    // Ask every label for its relations and neighbors, and every type for its endpoints
+    private static long adjacency(DbMetadata meta, List<String> labels, List<String> types, boolean scanning) {
+        long size = 0;
+        for (String label : labels) {
+            size += scanning ? ScanLookups.relationsFrom(meta, label).size() : meta.relationsFrom(label).size();
+            size += scanning ? ScanLookups.targetsFrom(meta, label).size() : meta.targetsFrom(label).size();
+            size += scanning ? ScanLookups.sourcesTo(meta, label).size() : meta.sourcesTo(label).size();
+            size += scanning ? ScanLookups.relationsTo(meta, label).size() : meta.relationsTo(label).size();
+        }
+        for (String type : types) {
+            size += scanning ? ScanLookups.sourcesOf(meta, type).size() : meta.sourcesOf(type).size();
+            size += scanning ? ScanLookups.targetsOf(meta, type).size() : meta.targetsOf(type).size();
+        }
+        return size;
+    }
+
+    private static DbMetadata schema(int labelCount, int typeCount, int schemaRelationCount) {
+        Random random = new Random(1);
+
+        Map<String, Integer> nodeCountsByLabel = new LinkedHashMap<>();
+        Map<String, Map<String, String>> nodePropertiesByLabel = new HashMap<>();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < labelCount; ++i) {
+            String label = "Label" + i;
+            nodeCountsByLabel.put(label, random.nextInt(100000));
+            Map<String, String> properties = new TreeMap<>();
+            for (int j = 0; j < PROPERTIES_PER_LABEL; ++j)
+                properties.put("property" + random.nextInt(100), "String");
+            nodePropertiesByLabel.put(label, properties);
+            nodes.add(new Node(-1 - i, label, null));
+        }
+
+        Map<String, Integer> relationCountsByLabel = new LinkedHashMap<>();
+        Map<String, Map<String, String>> relationPropertiesByLabel = new HashMap<>();
+        for (int i = 0; i < typeCount; ++i) {
+            String type = "TYPE_" + i;
+            relationCountsByLabel.put(type, random.nextInt(100000));
+            relationPropertiesByLabel.put(type, Map.of("weight" + i, "Long"));
+        }
+
+        List<Relation> relations = new ArrayList<>();
+        for (int i = 0; i < schemaRelationCount; ++i)
+            relations.add(new Relation(-1 - labelCount - i,
+                                       true,
+                                       nodes.get(random.nextInt(labelCount)),
+                                       nodes.get(random.nextInt(labelCount)),
+                                       "TYPE_" + random.nextInt(typeCount),
+                                       null));
+
+        return new DbMetadata(nodeCountsByLabel,
+                              relationCountsByLabel,
+                              nodePropertiesByLabel,
+                              relationPropertiesByLabel,
+                              new Graph(nodes, relations));
+    }
+
+    // The lookups as DbMetadata answered them before it indexed its schema, scanning it on every call
+    private static class ScanLookups {
+
+        static Collection<String> sourcesOf(DbMetadata meta, String relationLabel) {
+            return scan(meta, relation -> Objects.equals(relation.getLabel(), relationLabel),
+                        relation -> relation.start.getLabel());
+        }
+
+        static Collection<String> targetsOf(DbMetadata meta, String relationLabel) {
+            return scan(meta, relation -> Objects.equals(relation.getLabel(), relationLabel),
+                        relation -> relation.end.getLabel());
+        }
+
+        static Collection<String> relationsFrom(DbMetadata meta, String sourceLabel) {
+            return scan(meta, relation -> Objects.equals(relation.start.getLabel(), sourceLabel),
+                        Relation::getLabel);
+        }
+
+        static Collection<String> targetsFrom(DbMetadata meta, String sourceLabel) {
+            return scan(meta, relation -> Objects.equals(relation.start.getLabel(), sourceLabel),
+                        relation -> relation.end.getLabel());
+        }
+
+        static Collection<String> sourcesTo(DbMetadata meta, String targetLabel) {
+            return scan(meta, relation -> Objects.equals(relation.end.getLabel(), targetLabel),
+                        relation -> relation.start.getLabel());
+        }
+
+        static Collection<String> relationsTo(DbMetadata meta, String targetLabel) {
+            return scan(meta, relation -> Objects.equals(relation.end.getLabel(), targetLabel),
+                        Relation::getLabel);
+        }
+
+        static Map<String, String> nodeProperties(DbMetadata meta) {
+            return merge(meta.nodePropertiesByLabel());
+        }
+
+        static Map<String, String> relationProperties(DbMetadata meta) {
+            return merge(meta.relationPropertiesByLabel());
+        }
+
+        private static Collection<String> scan(DbMetadata meta,
+                                               Predicate<Relation> filter,
+                                               Function<Relation, String> mapper) {
+            return meta.schemaGraph()
+                    .getRelations()
+                    .stream()
+                    .filter(filter)
+                    .map(mapper)
+                    .collect(Collectors.toCollection(TreeSet::new));
+        }
+
+        private static Map<String, String> merge(Map<String, Map<String, String>> propertiesByLabel) {
+            return propertiesByLabel
+                    .values()
+                    .stream()
+                    .flatMap(map -> map.entrySet().stream())
+                    .collect(Collectors.toMap(
+                            Map.Entry::getKey,
+                            Map.Entry::getValue,
+                            (e1, e2) -> e2,
+                            TreeMap::new));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package hkust.edu.visualneo.utils.backend;
+
+import org.neo4j.driver.Config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Tuning of the connection pool of the driver, read from ~/.visualneo/driver.properties
+// and overridden by system properties of the same keys prefixed with "visualneo.driver."
+public record DriverSettings(long fetchSize,
+                             int maxConnectionPoolSize,
+                             Duration connectionAcquisitionTimeout,
+                             Duration connectionLivenessCheckTimeout,  // Null for no check of idle connections
+                             int prewarmedConnections) {
+
+    public static final DriverSettings DEFAULT =
+            new DriverSettings(1000, 100, Duration.ofSeconds(60), Duration.ofSeconds(30), 2);
+
+    private static final String SYSTEM_PREFIX = "visualneo.driver.";
+
+    public DriverSettings {
+        if (fetchSize <= 0)
+            throw new IllegalArgumentException("Fetch size should be positive!");
+        if (maxConnectionPoolSize <= 0)
+            throw new IllegalArgumentException("Connection pool size should be positive!");
+        Objects.requireNonNull(connectionAcquisitionTimeout);
+        if (prewarmedConnections < 0 || prewarmedConnections > maxConnectionPoolSize)
+            throw new IllegalArgumentException("Prewarmed connections should fit in the connection pool!");
+    }
+
+    public static DriverSettings load() {
+        return load(Path.of(System.getProperty("user.home"), ".visualneo", "driver.properties"));
+    }
+
+    public static DriverSettings load(Path file) {
+        Properties properties = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            }
+            catch (IOException e) {
+                System.out.println("Error when reading the driver settings");
+                e.printStackTrace();
+            }
+        }
+        System.getProperties().stringPropertyNames().forEach(key -> {
+            if (key.startsWith(SYSTEM_PREFIX))
+                properties.setProperty(key.substring(SYSTEM_PREFIX.length()), System.getProperty(key));
+        });
+
+        try {
+            return new DriverSettings(
+                    Long.parseLong(properties.getProperty("fetchSize", String.valueOf(DEFAULT.fetchSize)).trim()),
+                    Integer.parseInt(properties.getProperty("maxConnectionPoolSize",
+                                                            String.valueOf(DEFAULT.maxConnectionPoolSize)).trim()),
+                    seconds(properties.getProperty("connectionAcquisitionTimeout"),
+                            DEFAULT.connectionAcquisitionTimeout),
+                    seconds(properties.getProperty("connectionLivenessCheckTimeout"),
+                            DEFAULT.connectionLivenessCheckTimeout),
+                    Integer.parseInt(properties.getProperty("prewarmedConnections",
+                                                            String.valueOf(DEFAULT.prewarmedConnections)).trim()));
+        }
+        catch (RuntimeException e) {
+            System.out.println("Error when parsing the driver settings, falling back to the defaults");
+            e.printStackTrace();
+            return DEFAULT;
+        }
+    }
+
+    public Config toConfig() {
+        Config.ConfigBuilder builder = Config.builder()
+                                             .withFetchSize(fetchSize)
+                                             .withMaxConnectionPoolSize(maxConnectionPoolSize)
+                                             .withConnectionAcquisitionTimeout(
+                                                     connectionAcquisitionTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        if (connectionLivenessCheckTimeout != null)
+            builder.withConnectionLivenessCheckTimeout(connectionLivenessCheckTimeout.toMillis(),
+                                                       TimeUnit.MILLISECONDS);
+        return builder.build();
+    }
+
+    // Whole seconds, a negative number standing for none
+    private static Duration seconds(String value, Duration defaultValue) {
+        if (value == null)
+            return defaultValue;
+        long seconds = Long.parseLong(value.trim());
+        return seconds < 0 ? null : Duration.ofSeconds(seconds);
+    }
+}
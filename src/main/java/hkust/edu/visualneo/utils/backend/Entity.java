@@ -13,8 +13,8 @@ public abstract class Entity implements Comparable<Entity>, Mappable {
 
     protected final long id;
     protected int index = -1;
-    private final String label;
-    private final Map<String, Value> properties;
+    private String label;
+    private Map<String, Value> properties;
 
     // Pass null for an unlabeled node/relationship
     protected Entity(long id, String label, Map<String, Value> properties) {
@@ -23,6 +23,12 @@ public abstract class Entity implements Comparable<Entity>, Mappable {
         this.properties = properties == null ? Collections.emptyMap() : properties;
     }
 
+    // Take the new label and properties of an entity whose place in the graph stays the same
+    void assign(String label, Map<String, Value> properties) {
+        this.label = label;
+        this.properties = properties == null ? Collections.emptyMap() : properties;
+    }
+
     public boolean hasProperties() {
         return !properties.isEmpty();
     }
@@ -13,6 +13,9 @@ public class Graph implements Mappable {
     private final Map<Long, Node> nodes;
     private final Map<Long, Relation> relations;
 
+    // The nodes and relations of a graph never change once it is built, so neither does its connectivity
+    private Boolean connected;
+
     public Graph() {
         nodes = Collections.emptyMap();
         relations = Collections.emptyMap();
@@ -50,10 +53,12 @@ public class Graph implements Mappable {
         if (nodeCount() <= 1)
             return true;
 
-        Collection<Node> uncoloredNodes = new HashSet<>(getNodes());
-        color(uncoloredNodes, getNodes().iterator().next());
-
-        return uncoloredNodes.isEmpty();
+        if (connected == null) {
+            Collection<Node> uncoloredNodes = new HashSet<>(getNodes());
+            color(uncoloredNodes, getNodes().iterator().next());
+            connected = uncoloredNodes.isEmpty();
+        }
+        return connected;
     }
 
     // Recursively color nodes with depth first algorithm
@@ -0,0 +1,68 @@
+package hkust.edu.visualneo.utils.backend;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+// Bounded map that evicts the least recently used entry once it is full,
+// and optionally drops entries that are older than a fixed time to live
+public class LruCache<K, V> {
+
+    private final int capacity;
+    private final long timeToLive;  // In nanoseconds, non-positive for no expiry
+    private final Map<K, Entry<V>> entries;
+
+    public LruCache(int capacity) {
+        this(capacity, Duration.ZERO);
+    }
+
+    public LruCache(int capacity, Duration timeToLive) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity should be positive!");
+        this.capacity = capacity;
+        this.timeToLive = Objects.requireNonNull(timeToLive).toNanos();
+
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > LruCache.this.capacity;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null)
+            return null;
+        if (isExpired(entry, System.nanoTime())) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime()));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> isExpired(entry, now));
+        return entries.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return timeToLive > 0 && now - entry.createdAt() > timeToLive;
+    }
+
+    private record Entry<V>(V value, long createdAt) {}
+}
@@ -0,0 +1,199 @@
+package hkust.edu.visualneo.utils.backend;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// Local binary snapshots of database metadata, one file per connection URI and database id
+public class MetadataStore {
+
+    private static final int MAGIC = 0x564E4D44;  // "VNMD"
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".meta";
+
+    private final Path directory;
+
+    public MetadataStore() {
+        this(Path.of(System.getProperty("user.home"), ".visualneo", "metadata"));
+    }
+
+    public MetadataStore(Path directory) {
+        this.directory = Objects.requireNonNull(directory);
+    }
+
+    public Optional<DbMetadata> load(String uri, String databaseId) {
+        Path file = fileOf(uri, databaseId);
+        if (!Files.isRegularFile(file))
+            return Optional.empty();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return Optional.empty();
+            if (!in.readUTF().equals(uri) || !in.readUTF().equals(databaseId))
+                return Optional.empty();
+
+            Map<String, Integer> nodeCountsByLabel = readCounts(in);
+            Map<String, Integer> relationCountsByLabel = readCounts(in);
+            Map<String, Map<String, String>> nodePropertiesByLabel = readProperties(in);
+            Map<String, Map<String, String>> relationPropertiesByLabel = readProperties(in);
+            Graph schemaGraph = readSchema(in);
+
+            return Optional.of(new DbMetadata(
+                    nodeCountsByLabel,
+                    relationCountsByLabel,
+                    nodePropertiesByLabel,
+                    relationPropertiesByLabel,
+                    schemaGraph));
+        }
+        catch (IOException | RuntimeException e) {
+            System.out.println("Error when loading the metadata snapshot");
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+    public void save(String uri, String databaseId, DbMetadata meta) {
+        Path file = fileOf(uri, databaseId);
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            // Write to a temporary file first so that readers never see a partial snapshot
+            temp = Files.createTempFile(directory, "snapshot", SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(uri);
+                out.writeUTF(databaseId);
+
+                writeCounts(out, meta.nodeCountsByLabel());
+                writeCounts(out, meta.relationCountsByLabel());
+                writeProperties(out, meta.nodePropertiesByLabel());
+                writeProperties(out, meta.relationPropertiesByLabel());
+                writeSchema(out, meta.schemaGraph());
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            System.out.println("Error when saving the metadata snapshot");
+            e.printStackTrace();
+        }
+        finally {
+            // Left behind only if writing or moving it failed
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                }
+                catch (IOException e) {
+                    System.out.println("Error when deleting the temporary metadata snapshot");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private Path fileOf(String uri, String databaseId) {
+        try {
+            byte[] digest = MessageDigest
+                    .getInstance("SHA-256")
+                    .digest((uri + '\n' + databaseId).getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(digest, 0, 16) + SUFFIX);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeCounts(DataOutputStream out, Map<String, Integer> counts) throws IOException {
+        out.writeInt(counts.size());
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    private static Map<String, Integer> readCounts(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (int i = 0; i < size; ++i)
+            counts.put(in.readUTF(), in.readInt());
+        return counts;
+    }
+
+    private static void writeProperties(DataOutputStream out,
+                                        Map<String, Map<String, String>> propertiesByLabel) throws IOException {
+        out.writeInt(propertiesByLabel.size());
+        for (Map.Entry<String, Map<String, String>> entry : propertiesByLabel.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (Map.Entry<String, String> property : entry.getValue().entrySet()) {
+                out.writeUTF(property.getKey());
+                out.writeUTF(property.getValue());
+            }
+        }
+    }
+
+    private static Map<String, Map<String, String>> readProperties(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, Map<String, String>> propertiesByLabel = new HashMap<>();
+        for (int i = 0; i < size; ++i) {
+            String label = in.readUTF();
+            int propertyCount = in.readInt();
+            Map<String, String> properties = new TreeMap<>();
+            for (int j = 0; j < propertyCount; ++j)
+                properties.put(in.readUTF(), in.readUTF());
+            propertiesByLabel.put(label, properties);
+        }
+        return propertiesByLabel;
+    }
+
+    private static void writeSchema(DataOutputStream out, Graph schemaGraph) throws IOException {
+        out.writeInt(schemaGraph.nodeCount());
+        for (Node node : schemaGraph.getNodes()) {
+            out.writeLong(node.getId());
+            writeLabel(out, node);
+        }
+        out.writeInt(schemaGraph.relationCount());
+        for (Relation relation : schemaGraph.getRelations()) {
+            out.writeLong(relation.getId());
+            out.writeLong(relation.start.getId());
+            out.writeLong(relation.end.getId());
+            out.writeBoolean(relation.directed);
+            writeLabel(out, relation);
+        }
+    }
+
+    private static Graph readSchema(DataInputStream in) throws IOException {
+        int nodeCount = in.readInt();
+        Map<Long, Node> nodes = new HashMap<>();
+        for (int i = 0; i < nodeCount; ++i) {
+            long id = in.readLong();
+            nodes.put(id, new Node(id, readLabel(in), Collections.emptyMap()));
+        }
+        int relationCount = in.readInt();
+        List<Relation> relations = new ArrayList<>(relationCount);
+        for (int i = 0; i < relationCount; ++i) {
+            long id = in.readLong();
+            Node start = nodes.get(in.readLong());
+            Node end = nodes.get(in.readLong());
+            boolean directed = in.readBoolean();
+            relations.add(new Relation(id, directed, start, end, readLabel(in), Collections.emptyMap()));
+        }
+        return new Graph(nodes.values(), relations);
+    }
+
+    private static void writeLabel(DataOutputStream out, Entity entity) throws IOException {
+        out.writeBoolean(entity.hasLabel());
+        if (entity.hasLabel())
+            out.writeUTF(entity.getLabel());
+    }
+
+    private static String readLabel(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -70,6 +70,11 @@ public class Node extends Entity {
         return true;
     }
 
+    // Check whether two nodes can match the same node in the database, judging by their labels only
+    public boolean resemblesInShape(Node other) {
+        return !hasLabel() || !other.hasLabel() || getLabel().equals(other.getLabel());
+    }
+
     @Override
     public String getName() {
         return 'n' + (index == -1 ? String.valueOf(id) : String.valueOf(index));
@@ -0,0 +1,27 @@
+package hkust.edu.visualneo.utils.backend;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+// A Cypher template whose literal values are passed separately as parameters
+public record ParameterizedQuery(String template, Map<String, Object> parameters) {
+
+    public ParameterizedQuery {
+        Objects.requireNonNull(template);
+        parameters = Collections.unmodifiableMap(Objects.requireNonNull(parameters));
+    }
+
+    // Copy of the query with the given parameter added or replaced
+    public ParameterizedQuery with(String name, Object value) {
+        Map<String, Object> parameters = new HashMap<>(this.parameters);
+        parameters.put(name, value);
+        return new ParameterizedQuery(template, parameters);
+    }
+
+    @Override
+    public String toString() {
+        return template + System.lineSeparator() + parameters;
+    }
+}
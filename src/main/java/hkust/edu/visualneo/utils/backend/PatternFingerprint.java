@@ -0,0 +1,229 @@
+package hkust.edu.visualneo.utils.backend;
+
+import java.util.*;
+
+// Canonical form of a query pattern that does not depend on element ids or insertion order.
+// Nodes are ordered by colour refinement over labels, directions and property constraints,
+// and ties are broken by trying every member of a colour class and keeping the smallest encoding.
+public final class PatternFingerprint {
+
+    private static final int MAX_LEAVES = 4096;  // Give up canonicity (but not exactness) beyond this many orderings
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String canonicalForm;
+    private final long hash;
+
+    private PatternFingerprint(String canonicalForm) {
+        this.canonicalForm = canonicalForm;
+
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < canonicalForm.length(); ++i) {
+            hash ^= canonicalForm.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        this.hash = hash;
+    }
+
+    public static PatternFingerprint of(Graph graph) {
+        return new PatternFingerprint(new Canonizer(graph).canonize());
+    }
+
+    public String canonicalForm() {
+        return canonicalForm;
+    }
+
+    public long hash() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof PatternFingerprint other))
+            return false;
+        return hash == other.hash && canonicalForm.equals(other.canonicalForm);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x", hash);
+    }
+
+    private static String invariantOf(Entity entity) {
+        StringBuilder builder = new StringBuilder();
+        if (entity.hasLabel())
+            builder.append(':').append(entity.getLabel());
+        builder.append('{');
+        new TreeMap<>(entity.getProperties()).forEach((key, value) -> builder
+                .append(key)
+                .append('=')
+                .append(value.type().name())
+                .append(' ')
+                .append(value)
+                .append(';'));
+        builder.append('}');
+        return builder.toString();
+    }
+
+    private static class Canonizer {
+
+        private final Node[] nodes;
+        private final Relation[] relations;
+
+        private final String[] nodeInvariants;
+        private final String[] relationInvariants;
+
+        // For each node, the indices of its incident relations
+        private final List<List<Integer>> incidences = new ArrayList<>();
+
+        private final Map<Node, Integer> indices = new HashMap<>();
+
+        private int leaves = 0;
+
+        Canonizer(Graph graph) {
+            nodes = graph.getNodes().toArray(Node[]::new);
+            relations = graph.getRelations().toArray(Relation[]::new);
+
+            nodeInvariants = new String[nodes.length];
+            for (int i = 0; i < nodes.length; ++i) {
+                nodeInvariants[i] = invariantOf(nodes[i]);
+                indices.put(nodes[i], i);
+                incidences.add(new ArrayList<>());
+            }
+
+            relationInvariants = new String[relations.length];
+            for (int i = 0; i < relations.length; ++i) {
+                Relation relation = relations[i];
+                relationInvariants[i] = (relation.directed ? "->" : "--") + invariantOf(relation);
+                incidences.get(indices.get(relation.start)).add(i);
+                if (relation.start != relation.end)
+                    incidences.get(indices.get(relation.end)).add(i);
+            }
+        }
+
+        String canonize() {
+            return search(rank(nodeInvariants));
+        }
+
+        private String search(int[] colors) {
+            colors = refine(colors);
+
+            int target = smallestSharedColor(colors);
+            if (target == -1) {
+                ++leaves;
+                return certificate(colors);
+            }
+
+            String best = null;
+            for (int i = 0; i < colors.length; ++i) {
+                if (colors[i] != target)
+                    continue;
+                String candidate = search(individualize(colors, i));
+                if (best == null || candidate.compareTo(best) < 0)
+                    best = candidate;
+                if (leaves >= MAX_LEAVES)
+                    break;
+            }
+            return best;
+        }
+
+        // Split colour classes by the colours of their neighbourhoods until nothing changes
+        private int[] refine(int[] colors) {
+            int classes = countClasses(colors);
+            while (true) {
+                String[] signatures = new String[colors.length];
+                for (int i = 0; i < colors.length; ++i)
+                    signatures[i] = String.format("%08d", colors[i]) + neighborhoodOf(i, colors);
+
+                int[] refined = rank(signatures);
+                int refinedClasses = countClasses(refined);
+                if (refinedClasses == classes)
+                    return refined;
+                colors = refined;
+                classes = refinedClasses;
+            }
+        }
+
+        private String neighborhoodOf(int index, int[] colors) {
+            List<String> neighbors = new ArrayList<>();
+            for (int relationIndex : incidences.get(index)) {
+                Relation relation = relations[relationIndex];
+                int start = indices.get(relation.start);
+                int end = indices.get(relation.end);
+
+                String direction = start == end ? "=" :
+                                   !relation.directed ? "-" :
+                                   start == index ? ">" : "<";
+                int other = start == index ? end : start;
+                neighbors.add(direction + relationInvariants[relationIndex] + '@' + colors[other]);
+            }
+            Collections.sort(neighbors);
+            return neighbors.toString();
+        }
+
+        // Give the chosen node a colour of its own, keeping the relative order of all other classes
+        private static int[] individualize(int[] colors, int chosen) {
+            int[] result = new int[colors.length];
+            for (int i = 0; i < colors.length; ++i)
+                result[i] = 2 * colors[i] + (colors[i] == colors[chosen] && i != chosen ? 1 : 0);
+            return result;
+        }
+
+        private String certificate(int[] colors) {
+            StringBuilder builder = new StringBuilder();
+
+            Integer[] order = new Integer[colors.length];
+            for (int i = 0; i < order.length; ++i)
+                order[i] = i;
+            Arrays.sort(order, Comparator.comparingInt(i -> colors[i]));
+            for (int i : order)
+                builder.append('(').append(nodeInvariants[i]).append(')');
+
+            List<String> edges = new ArrayList<>();
+            for (int i = 0; i < relations.length; ++i) {
+                int start = colors[indices.get(relations[i].start)];
+                int end = colors[indices.get(relations[i].end)];
+                if (!relations[i].directed && start > end) {
+                    int temp = start;
+                    start = end;
+                    end = temp;
+                }
+                edges.add(String.format("[%d,%d%s]", start, end, relationInvariants[i]));
+            }
+            Collections.sort(edges);
+            edges.forEach(builder::append);
+
+            return builder.toString();
+        }
+
+        private static int smallestSharedColor(int[] colors) {
+            int[] sorted = colors.clone();
+            Arrays.sort(sorted);
+            for (int i = 1; i < sorted.length; ++i)
+                if (sorted[i] == sorted[i - 1])
+                    return sorted[i];
+            return -1;
+        }
+
+        private static int countClasses(int[] colors) {
+            return (int) Arrays.stream(colors).distinct().count();
+        }
+
+        // Replace each string by its position among the distinct strings
+        private static int[] rank(String[] keys) {
+            String[] distinct = Arrays.stream(keys).distinct().sorted().toArray(String[]::new);
+            int[] ranks = new int[keys.length];
+            for (int i = 0; i < keys.length; ++i)
+                ranks[i] = Arrays.binarySearch(distinct, keys[i]);
+            return ranks;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package hkust.edu.visualneo.utils.backend;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
-import static hkust.edu.visualneo.utils.backend.QueryBuilder.MAXIMUM_RECORDS;
+import static hkust.edu.visualneo.utils.backend.QueryBuilder.FROM_PARAMETER;
+import static hkust.edu.visualneo.utils.backend.QueryBuilder.LIMIT_PARAMETER;
+import static hkust.edu.visualneo.utils.backend.QueryBuilder.SKIP_PARAMETER;
 
 public class Queries {
 
@@ -16,25 +20,49 @@ public class Queries {
               ()-->()
             RETURN
               count(*) AS relationshipCount""";
-    public static final String NODE_COUNT_BY_LABEL_QUERY = """
+    public static final String LABELS_AND_TYPES_QUERY = """
+            CALL {
+              CALL
+                db.labels()
+              YIELD
+                label
+              RETURN
+                collect(label) AS labels
+            }
+            CALL {
+              CALL
+                db.relationshipTypes()
+              YIELD
+                relationshipType
+              RETURN
+                collect(relationshipType) AS types
+            }
+            RETURN
+              labels, types""";
+    // Parts of a UNION query reading the counts of several labels/types, each answered by the count store
+    public static final String INDEXED_NODE_COUNT_QUERY = """
             MATCH
               (:%s)
             RETURN
-              count(*) AS nodeCountByLabel""";
-    public static final String RELATIONSHIP_COUNT_BY_TYPE_QUERY = """
+              %d AS index, count(*) AS count""";
+    public static final String INDEXED_RELATIONSHIP_COUNT_QUERY = """
             MATCH
               ()-[:%s]->()
             RETURN
-              count(*) AS relationshipCountByType""";
-    public static final String LABELS_QUERY = """
-            CALL
-              db.labels()""";
-    public static final String RELATIONSHIP_TYPES_QUERY = """
-            CALL
-              db.relationshipTypes()""";
+              %d AS index, count(*) AS count""";
     public static final String PROPERTY_KEYS_QUERY = """
             CALL
               db.propertyKeys()""";
+    public static final String DATABASE_ID_QUERY = """
+            CALL
+              db.info()
+            YIELD
+              id
+            RETURN
+              id""";
+    public static final String PREWARM_QUERY = """
+            RETURN
+              1""";
     public static final String SCHEMA_QUERY = """
             CALL
               db.schema.visualization""";
@@ -75,6 +103,50 @@ public class Queries {
               [] AS relationships,
               collect([[ID(n)], []]) AS resultIds""";
 
+    public static final String PAGED_SINGLETON_QUERY = """
+            MATCH
+              (n%s)
+            WHERE
+              ID(n) >= %s
+            WITH
+              n
+            ORDER BY
+              ID(n)
+            SKIP
+              %s
+            LIMIT
+              %s
+            RETURN
+              collect(n) AS nodes,
+              [] AS relationships,
+              collect([[ID(n)], []]) AS resultIds,
+              collect(ID(n)) AS matchAnchors,
+              count(n) AS anchorCount,
+              max(ID(n)) AS lastAnchor""";
+
+    public static final String NODE_IDS_PARAMETER = "nodeIds";
+    public static final String RELATIONSHIP_IDS_PARAMETER = "relationshipIds";
+    public static final String ENTITIES_QUERY = """
+            CALL {
+              MATCH
+                (n)
+              WHERE
+                ID(n) IN $nodeIds
+              RETURN
+                collect(n) AS nodes
+            }
+            CALL {
+              MATCH
+                ()-[r]->()
+              WHERE
+                ID(r) IN $relationshipIds
+              RETURN
+                collect(r) AS relationships
+            }
+            RETURN
+              nodes,
+              relationships""";
+
     public static final String SIMPLE_SINGLETON_QUERY = """
             MATCH (n%s)
             RETURN n""";
@@ -85,14 +157,31 @@ public class Queries {
         return sep;
     }
 
-    public static String nodeCountByLabelQuery(String label) {
-        return String.format(NODE_COUNT_BY_LABEL_QUERY, label);
+    // Count all given labels and then all given types, answering each count with its position in that order
+    public static String countsQuery(List<String> labels, List<String> types) {
+        List<String> parts = new ArrayList<>(labels.size() + types.size());
+        for (String label : labels)
+            parts.add(String.format(INDEXED_NODE_COUNT_QUERY, escape(label), parts.size()));
+        for (String type : types)
+            parts.add(String.format(INDEXED_RELATIONSHIP_COUNT_QUERY, escape(type), parts.size()));
+        return String.join(System.lineSeparator() + "UNION ALL" + System.lineSeparator(), parts);
+    }
+
+    // Quote a label or type so that it can contain any character
+    public static String escape(String name) {
+        return '`' + name.replace("`", "``") + '`';
+    }
+
+    public static String singletonQuery(String translation) {
+        return String.format(SIMPLE_SINGLETON_QUERY, translation);
     }
-    public static String relationshipCountByTypeQuery(String type) {
-        return String.format(RELATIONSHIP_COUNT_BY_TYPE_QUERY, type);
+
+    public static String parameterizedSingletonQuery(String translation) {
+        return String.format(SINGLETON_QUERY, translation, '$' + LIMIT_PARAMETER);
     }
 
-    public static String singletonQuery(String translation, boolean simple) {
-        return String.format(simple ? SIMPLE_SINGLETON_QUERY : SINGLETON_QUERY, translation, MAXIMUM_RECORDS);
+    public static String pagedSingletonQuery(String translation) {
+        return String.format(PAGED_SINGLETON_QUERY, translation,
+                             '$' + FROM_PARAMETER, '$' + SKIP_PARAMETER, '$' + LIMIT_PARAMETER);
     }
 }
@@ -8,13 +8,21 @@ import org.neo4j.driver.types.TypeSystem;
 
 import java.time.LocalDate;
 import java.util.*;
+import java.util.stream.Collectors;
 
+import static hkust.edu.visualneo.utils.backend.Queries.pagedSingletonQuery;
+import static hkust.edu.visualneo.utils.backend.Queries.parameterizedSingletonQuery;
 import static hkust.edu.visualneo.utils.backend.Queries.singletonQuery;
 
 // Class representing a Cypher query statement
 public class QueryBuilder {
 
     public static final int MAXIMUM_RECORDS = 100;
+    public static final String LIMIT_PARAMETER = "limit";
+    public static final String FROM_PARAMETER = "from";  // Identifier from which the anchors of a page start
+    public static final String SKIP_PARAMETER = "skip";  // Matches of the first anchor given by the previous pages
+
+    private static final int TEMPLATE_CACHE_SIZE = 64;
 
     private static final String NEW_LINE = System.lineSeparator();
     private static final String TAB = "  ";
@@ -22,21 +30,84 @@ public class QueryBuilder {
 
     private final StringBuilder buffer = new StringBuilder();
 
+    // Query templates keyed by the shape of the pattern they were generated from
+    private final LruCache<String, String> templateCache = new LruCache<>(TEMPLATE_CACHE_SIZE);
+
+    // Label and property fragments of the entities translated by update, kept until the entity changes
+    private final Map<Long, String> nodeFragments = new HashMap<>();
+    private final Map<Long, String> relationFragments = new HashMap<>();
+
+    private boolean parameterized = false;
+    private boolean paged = false;
+    private boolean reusingFragments = false;
+
+    private QueryPlanner planner;
+
     private final StringProperty translation = new SimpleStringProperty(this, "translation", null);
 
-    public String translate(Graph graph, boolean simple) {
+    // Translate the graph into a readable query for display, with the property values inlined
+    public synchronized String translate(Graph graph) {
+        validate(graph);
+        return build(graph, true);
+    }
+
+    // Translate the graph into a reusable template, with all property values and the limit passed as parameters.
+    // Unless the pattern is a single node, it answers a row of node and relationship identifiers per match.
+    public synchronized ParameterizedQuery translateParameterized(Graph graph) {
+        return translateTemplate(graph, false);
+    }
+
+    // Translate the graph into a template matching the pattern a page at a time, of at most pageSize matches
+    // from as many anchor nodes, those with identifiers from the "from" parameter on, in order of identifiers.
+    // Each page is answered by a single record with the identifiers of its matches and of their anchors,
+    // which also holds the number of anchors in the page and the identifier of the last one.
+    // A full page resumes from the anchor of its last match, skipping the matches of that anchor given so far,
+    // while any other page resumes after its last anchor.
+    public synchronized ParameterizedQuery translatePaged(Graph graph, int pageSize) {
+        return translateTemplate(graph, true)
+                .with(LIMIT_PARAMETER, pageSize)
+                .with(FROM_PARAMETER, 0L)
+                .with(SKIP_PARAMETER, 0);
+    }
+
+    private ParameterizedQuery translateTemplate(Graph graph, boolean paged) {
+        validate(graph);
+
+        String shape = (paged ? "*" : "") + shapeOf(graph);
+        String template = templateCache.get(shape);
+        if (template == null) {
+            parameterized = true;
+            this.paged = paged;
+            try {
+                template = build(graph, false);
+            }
+            finally {
+                parameterized = false;
+                this.paged = false;
+            }
+            templateCache.put(shape, template);
+        }
+
+        return new ParameterizedQuery(template, bind(graph));
+    }
+
+    private void validate(Graph graph) {
         if (graph.isEmpty())
             throw new Graph.BadTopologyException(Graph.BadTopologyException.TopologyType.EMPTY);
         if (!graph.isConnected())
             throw new Graph.BadTopologyException(Graph.BadTopologyException.TopologyType.DISCONNECTED);
         graph.index();
+    }
 
+    private String build(Graph graph, boolean simple) {
         if (graph.getRelations().isEmpty()) {
             Node singleton = graph.getNodes().iterator().next();
             translateEntity(singleton);
             String translation = buffer.toString();
             clear();
-            return singletonQuery(translation, simple);
+            return simple ? singletonQuery(translation) :
+                   paged ? pagedSingletonQuery(translation) :
+                   parameterizedSingletonQuery(translation);
         }
 
         Set<Node> unusedNodes = new HashSet<>(graph.getNodes());
@@ -47,47 +118,65 @@ public class QueryBuilder {
         String commaSeparator = simple ? ", " : "," + NEW_LINE_INDENT;
         String andSeparator = simple ? " AND " : " AND" + NEW_LINE_INDENT;
 
+        // Start from the most selective node and expand from there when the database is known
+        Node first = planner == null ? graph.getNodes().iterator().next() : planner.anchorOf(graph);
+        Collection<Relation> relations = planner == null ? graph.getRelations() : planner.order(graph, first);
+
         // CALL clause
         if (!simple) {
             buffer.append("CALL {");
             buffer.append(keywordSeparator);
 
-            Node first = graph.getNodes().iterator().next();
-
             buffer.append("MATCH");
             buffer.append(keywordSeparator).append(TAB);
             translate(first, unusedNodes);
             buffer.append(keywordSeparator);
 
+            if (paged) {
+                buffer.append("WHERE");
+                buffer.append(keywordSeparator).append(TAB);
+                buffer.append("ID(").append(first.getName()).append(") >= $").append(FROM_PARAMETER);
+                buffer.append(keywordSeparator);
+            }
+
             buffer.append("RETURN");
             buffer.append(keywordSeparator).append(TAB);
             buffer.append(first.getName());
             buffer.append(keywordSeparator);
 
+            if (paged) {
+                buffer.append("ORDER BY");
+                buffer.append(keywordSeparator).append(TAB);
+                buffer.append("ID(").append(first.getName()).append(')');
+                buffer.append(keywordSeparator);
+            }
+
             buffer.append("LIMIT");
             buffer.append(keywordSeparator).append(TAB);
-            buffer.append(MAXIMUM_RECORDS);
+            buffer.append('$').append(LIMIT_PARAMETER);
             buffer.append(NEW_LINE);
 
             buffer.append("}").append(NEW_LINE);
         }
+        int matchStart = buffer.length();
 
         // MATCH clause
         buffer.append("MATCH");
         buffer.append(keywordSeparator);
 
-
-        Iterator<Relation> relationIt = graph.getRelations().iterator();
-        Relation relation = relationIt.next();
-        translate(relation.start, unusedNodes);
-        translate(relation);
-        translate(relation.end, unusedNodes);
-        while (relationIt.hasNext()) {
+        Set<Node> reachedNodes = new HashSet<>();
+        reachedNodes.add(first);
+        Iterator<Relation> relationIt = relations.iterator();
+        while (true) {
+            Relation relation = relationIt.next();
+            // Write each part starting from a node that has already been matched
+            Node source = planner == null || reachedNodes.contains(relation.start) ? relation.start : relation.end;
+            translate(relation, source, unusedNodes);
+            reachedNodes.add(relation.start);
+            reachedNodes.add(relation.end);
+            if (!relationIt.hasNext())
+                break;
             buffer.append(commaSeparator);
-            relation = relationIt.next();
-            translate(relation.start, unusedNodes);
-            translate(relation);
-            translate(relation.end, unusedNodes);
         }
 
         buffer.append(NEW_LINE);
@@ -99,7 +188,8 @@ public class QueryBuilder {
             for (int j = i + 1; j < nodes.size(); ++j) {
                 Node left = nodes.get(i);
                 Node right = nodes.get(j);
-                if (left.resembles(right))
+                // Templates are shared between different values, so only the labels can be compared
+                if (parameterized ? left.resemblesInShape(right) : left.resembles(right))
                     dupPairs.add(Pair.ordered(left, right));
             }
         }
@@ -124,40 +214,52 @@ public class QueryBuilder {
         if (simple)
             buffer.append("RETURN *");
         else {
-            // WITH and UNWIND clauses (for grouping distinct nodes and relations)
-            buffer.append("WITH");
-            buffer.append(NEW_LINE_INDENT);
-
-            buffer.append("[");
-            buffer.append(String.join(", ", nodeNames));
-            buffer.append("] AS allNodes");
-            buffer.append(commaSeparator);
-            buffer.append("[");
-            buffer.append(String.join(", ", relationNames));
-            buffer.append("] AS allRelationships");
-            buffer.append(NEW_LINE);
-
-            buffer.append("UNWIND");
-            buffer.append(NEW_LINE_INDENT);
-
-            buffer.append("allNodes AS n");
-            buffer.append(NEW_LINE);
-
-            buffer.append("UNWIND");
-            buffer.append(NEW_LINE_INDENT);
-
-            buffer.append("allRelationships AS r");
-            buffer.append(NEW_LINE);
-
-            // RETURN clause
-            buffer.append("RETURN");
-            buffer.append(NEW_LINE_INDENT);
+            // RETURN clause (identifiers only, one row per match or one list of them per page,
+            // the entities being fetched afterwards, once each)
+            String nodeIds = nodeNames.stream().map(name -> "ID(" + name + ")").collect(Collectors.joining(", ", "[", "]"));
+            String relationIds = relationNames.stream().map(name -> "ID(" + name + ")").collect(Collectors.joining(", ", "[", "]"));
+
+            if (paged) {
+                // At most a page of matches, in an order that lets the next page resume within an anchor
+                buffer.append("WITH");
+                buffer.append(NEW_LINE_INDENT);
+                buffer.append("ID(").append(first.getName()).append(") AS anchor");
+                buffer.append(commaSeparator);
+                buffer.append(nodeIds).append(" AS nodeIds");
+                buffer.append(commaSeparator);
+                buffer.append(relationIds).append(" AS relationshipIds");
+                buffer.append(NEW_LINE);
+
+                buffer.append("ORDER BY");
+                buffer.append(NEW_LINE_INDENT);
+                buffer.append("anchor, nodeIds, relationshipIds");
+                buffer.append(NEW_LINE);
+
+                buffer.append("SKIP");
+                buffer.append(NEW_LINE_INDENT);
+                buffer.append('$').append(SKIP_PARAMETER);
+                buffer.append(NEW_LINE);
+
+                buffer.append("LIMIT");
+                buffer.append(NEW_LINE_INDENT);
+                buffer.append('$').append(LIMIT_PARAMETER);
+                buffer.append(NEW_LINE);
+
+                buffer.append("RETURN");
+                buffer.append(NEW_LINE_INDENT);
+                buffer.append("collect([nodeIds, relationshipIds]) AS resultIds");
+                buffer.append(commaSeparator);
+                buffer.append("collect(anchor) AS matchAnchors");
+                page(first, matchStart);
+            }
+            else {
+                buffer.append("RETURN");
+                buffer.append(NEW_LINE_INDENT);
 
-            buffer.append("collect(DISTINCT n) AS nodes");
-            buffer.append(commaSeparator);
-            buffer.append("collect(DISTINCT r) AS relationships");
-            buffer.append(commaSeparator);
-            buffer.append("collect(DISTINCT [[n IN allNodes | ID(n)], [r IN allRelationships | ID(r)]]) AS resultIds");
+                buffer.append(nodeIds).append(" AS nodeIds");
+                buffer.append(commaSeparator);
+                buffer.append(relationIds).append(" AS relationshipIds");
+            }
         }
 
         String query = buffer.toString();
@@ -166,15 +268,76 @@ public class QueryBuilder {
         return query;
     }
 
-    public void update(Graph graph) {
+    // Match the rest of the pattern from all the anchors of the page at once, in a subquery that always answers
+    // with a single record, so that the next page can be found even when no anchor of this one matches
+    private void page(Node first, int matchStart) {
+        String matching = buffer.substring(matchStart);
+        buffer.setLength(matchStart);
+
+        buffer.append("WITH");
+        buffer.append(NEW_LINE_INDENT);
+        buffer.append("collect(").append(first.getName()).append(") AS anchors");
+        buffer.append("," + NEW_LINE_INDENT);
+        buffer.append("max(ID(").append(first.getName()).append(")) AS lastAnchor");
+        buffer.append(NEW_LINE);
+
+        buffer.append("CALL {");
+        buffer.append(NEW_LINE_INDENT);
+        buffer.append("WITH");
+        buffer.append(NEW_LINE_INDENT).append(TAB);
+        buffer.append("anchors");
+        buffer.append(NEW_LINE_INDENT);
+        buffer.append("UNWIND");
+        buffer.append(NEW_LINE_INDENT).append(TAB);
+        buffer.append("anchors AS ").append(first.getName());
+        buffer.append(NEW_LINE_INDENT);
+        buffer.append(matching.replace(NEW_LINE, NEW_LINE_INDENT));
+        buffer.append(NEW_LINE);
+        buffer.append("}").append(NEW_LINE);
+
+        buffer.append("RETURN");
+        buffer.append(NEW_LINE_INDENT);
+        buffer.append("resultIds");
+        buffer.append("," + NEW_LINE_INDENT);
+        buffer.append("matchAnchors");
+        buffer.append("," + NEW_LINE_INDENT);
+        buffer.append("size(anchors) AS anchorCount");
+        buffer.append("," + NEW_LINE_INDENT);
+        buffer.append("lastAnchor");
+    }
+
+    public synchronized void update(Graph graph) {
         try {
-            setTranslation(translate(graph, true));
+            setTranslation(translate(graph));
         }
         catch (Graph.BadTopologyException e) {
             setTranslation("");
         }
     }
 
+    // Translate the graph again, rendering the labels and properties of the given entities only
+    // and reusing those of all the others from the previous incremental update
+    public synchronized void update(Graph graph, Collection<Long> changedNodes, Collection<Long> changedRelations) {
+        nodeFragments.keySet().retainAll(graph.nodeIds());
+        nodeFragments.keySet().removeAll(changedNodes);
+        relationFragments.keySet().retainAll(graph.relationIds());
+        relationFragments.keySet().removeAll(changedRelations);
+
+        reusingFragments = true;
+        try {
+            update(graph);
+        }
+        finally {
+            reusingFragments = false;
+        }
+    }
+
+    // Plan the generated queries with the statistics of the database, or in pattern order if it is null
+    public synchronized void setMetadata(DbMetadata meta) {
+        planner = meta == null ? null : new QueryPlanner(meta);
+        templateCache.clear();
+    }
+
     public StringProperty translationProperty() {
         return translation;
     }
@@ -197,16 +360,36 @@ public class QueryBuilder {
         buffer.append(')');
     }
 
-    private void translate(Relation relation) {
-        buffer.append("-[");
+    private void translate(Relation relation, Node source, Set<Node> unusedNodes) {
+        boolean reversed = source != relation.start;
+        translate(source, unusedNodes);
+        buffer.append(reversed && relation.directed ? "<-[" : "-[");
         buffer.append(relation.getName());
         translateEntity(relation);
         buffer.append("]-");
-        if (relation.directed)
+        if (relation.directed && !reversed)
             buffer.append('>');
+        translate(relation.other(source), unusedNodes);
     }
 
     private void translateEntity(Entity entity) {
+        if (!reusingFragments) {
+            renderEntity(entity);
+            return;
+        }
+
+        Map<Long, String> fragments = entity instanceof Node ? nodeFragments : relationFragments;
+        String fragment = fragments.get(entity.getId());
+        if (fragment != null) {
+            buffer.append(fragment);
+            return;
+        }
+        int start = buffer.length();
+        renderEntity(entity);
+        fragments.put(entity.getId(), buffer.substring(start));
+    }
+
+    private void renderEntity(Entity entity) {
         if (entity.hasLabel()) {
             buffer.append(':');
             buffer.append(entity.getLabel());
@@ -215,37 +398,16 @@ public class QueryBuilder {
         if (entity.hasProperties()) {
             buffer.append(" {");
             Iterator<String> propertyIt = entity.getProperties().keySet().iterator();
+            int propertyIndex = 0;
             while (true) {
                 String propertyKey = propertyIt.next();
                 buffer.append(propertyKey);
                 buffer.append(": ");
-                Value value = entity.getProperties().get(propertyKey);
-                Type[] timeTypes = {
-                                    TypeSystem.getDefault().ANY(),
-                                    TypeSystem.getDefault().DATE(),
-                                    TypeSystem.getDefault().TIME(),
-                                    TypeSystem.getDefault().DATE_TIME(),
-                                    TypeSystem.getDefault().LOCAL_TIME(),
-                                    TypeSystem.getDefault().LOCAL_DATE_TIME(),
-                                    TypeSystem.getDefault().DURATION()
-                                };
-                String[] typeWrappers = {
-                                            "",
-                                            "date(\"",
-                                            "time(\"",
-                                            "datetime(\"",
-                                            "localtime(\"",
-                                            "localdatetime(\"",
-                                            "duration(\"",
-                                    };
-                int idx = 0;
-                for(int i = 1; i < timeTypes.length; i++){
-                    if(value.hasType(timeTypes[i]))
-                        idx = i;
-                }
-                buffer.append(typeWrappers[idx]);
-                buffer.append(value);
-                if(idx != 0) buffer.append("\")");
+                if (parameterized)
+                    buffer.append('$').append(parameterName(entity, propertyIndex));
+                else
+                    translateValue(entity.getProperties().get(propertyKey));
+                ++propertyIndex;
 
                 if (!propertyIt.hasNext())
                     break;
@@ -254,4 +416,79 @@ public class QueryBuilder {
             buffer.append('}');
         }
     }
-}
\ No newline at end of file
+
+    private void translateValue(Value value) {
+        Type[] timeTypes = {
+                            TypeSystem.getDefault().ANY(),
+                            TypeSystem.getDefault().DATE(),
+                            TypeSystem.getDefault().TIME(),
+                            TypeSystem.getDefault().DATE_TIME(),
+                            TypeSystem.getDefault().LOCAL_TIME(),
+                            TypeSystem.getDefault().LOCAL_DATE_TIME(),
+                            TypeSystem.getDefault().DURATION()
+                        };
+        String[] typeWrappers = {
+                                    "",
+                                    "date(\"",
+                                    "time(\"",
+                                    "datetime(\"",
+                                    "localtime(\"",
+                                    "localdatetime(\"",
+                                    "duration(\"",
+                            };
+        int idx = 0;
+        for(int i = 1; i < timeTypes.length; i++){
+            if(value.hasType(timeTypes[i]))
+                idx = i;
+        }
+        buffer.append(typeWrappers[idx]);
+        buffer.append(value);
+        if(idx != 0) buffer.append("\")");
+    }
+
+    // Describe everything that the generated template depends on, leaving out the property values
+    private static String shapeOf(Graph graph) {
+        StringBuilder shape = new StringBuilder();
+        for (Node node : graph.getNodes()) {
+            shape.append('(');
+            shapeOf(node, shape);
+            shape.append(')');
+        }
+        for (Relation relation : graph.getRelations()) {
+            shape.append('[');
+            shape.append(relation.start.getName());
+            shape.append(relation.directed ? "->" : "--");
+            shape.append(relation.end.getName());
+            shapeOf(relation, shape);
+            shape.append(']');
+        }
+        return shape.toString();
+    }
+
+    private static void shapeOf(Entity entity, StringBuilder shape) {
+        if (entity.hasLabel())
+            shape.append(':').append(entity.getLabel());
+        if (entity.hasProperties())
+            shape.append(entity.getProperties().keySet());
+    }
+
+    private static Map<String, Object> bind(Graph graph) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put(LIMIT_PARAMETER, MAXIMUM_RECORDS);
+        for (Node node : graph.getNodes())
+            bind(node, parameters);
+        for (Relation relation : graph.getRelations())
+            bind(relation, parameters);
+        return parameters;
+    }
+
+    private static void bind(Entity entity, Map<String, Object> parameters) {
+        int propertyIndex = 0;
+        for (Value value : entity.getProperties().values())
+            parameters.put(parameterName(entity, propertyIndex++), value);
+    }
+
+    private static String parameterName(Entity entity, int propertyIndex) {
+        return entity.getName() + '_' + propertyIndex;
+    }
+}
@@ -0,0 +1,93 @@
+package hkust.edu.visualneo.utils.backend;
+
+import java.util.*;
+
+// Chooses where the matching of a pattern starts and in which order it expands,
+// based on the label and relationship type counts of the database
+public class QueryPlanner {
+
+    private static final double PROPERTY_SELECTIVITY = 0.1;  // Assumed fraction of entities passing one property constraint
+
+    private final DbMetadata meta;
+
+    public QueryPlanner(DbMetadata meta) {
+        this.meta = Objects.requireNonNull(meta);
+    }
+
+    // Estimated number of database nodes matching the node
+    public double estimate(Node node) {
+        return countOf(node) * selectivityOf(node);
+    }
+
+    // Estimated number of database relationships matching the relation
+    public double estimate(Relation relation) {
+        double count = relation.hasLabel() ? meta.relationCountOf(relation.getLabel()) : meta.relationCount();
+        return count * selectivityOf(relation);
+    }
+
+    // The most selective node, preferring better connected ones on ties
+    public Node anchorOf(Graph graph) {
+        Node anchor = null;
+        double min = Double.POSITIVE_INFINITY;
+        for (Node node : graph.getNodes()) {
+            double estimate = estimate(node);
+            if (estimate < min || estimate == min && node.relationCount() > anchor.relationCount()) {
+                anchor = node;
+                min = estimate;
+            }
+        }
+        return anchor;
+    }
+
+    // Order the relations so that each one extends the part already matched, cheapest expansion first
+    public List<Relation> order(Graph graph, Node anchor) {
+        List<Relation> ordered = new ArrayList<>(graph.relationCount());
+        Set<Relation> remaining = new LinkedHashSet<>(graph.getRelations());
+        Set<Node> reached = new HashSet<>();
+        reached.add(anchor);
+
+        while (!remaining.isEmpty()) {
+            Relation next = null;
+            double min = Double.POSITIVE_INFINITY;
+            for (Relation relation : remaining) {
+                boolean startReached = reached.contains(relation.start);
+                boolean endReached = reached.contains(relation.end);
+                if (!startReached && !endReached)
+                    continue;
+
+                double cost = startReached && endReached ?
+                              0.0 :
+                              expansionCost(relation, startReached ? relation.start : relation.end);
+                if (cost < min) {
+                    next = relation;
+                    min = cost;
+                }
+            }
+
+            if (next == null)  // Disconnected pattern, should have been rejected before planning
+                next = remaining.iterator().next();
+
+            remaining.remove(next);
+            ordered.add(next);
+            reached.add(next.start);
+            reached.add(next.end);
+        }
+
+        return ordered;
+    }
+
+    // Expected number of rows produced per row of the source when following the relation
+    private double expansionCost(Relation relation, Node source) {
+        Node target = relation.other(source);
+        double fanOut = estimate(relation) / Math.max(1.0, countOf(source));
+        return fanOut * selectivityOf(target);
+    }
+
+    private double countOf(Node node) {
+        return node.hasLabel() ? meta.nodeCountOf(node.getLabel()) : meta.nodeCount();
+    }
+
+    private static double selectivityOf(Entity entity) {
+        return Math.pow(PROPERTY_SELECTIVITY, entity.getProperties().size());
+    }
+}
@@ -0,0 +1,92 @@
+package hkust.edu.visualneo.utils.backend;
+
+import hkust.edu.visualneo.utils.frontend.Canvas;
+import hkust.edu.visualneo.utils.frontend.Edge;
+import hkust.edu.visualneo.utils.frontend.GraphElement;
+import hkust.edu.visualneo.utils.frontend.Vertex;
+import javafx.animation.PauseTransition;
+import javafx.util.Duration;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Keeps the translation of a canvas up to date, once per burst of changes,
+// rendering again only the elements that changed since the last translation.
+// The graph is kept across changes that leave its elements and their directions as they were,
+// but the clauses are still put together again from the kept fragments of all the entities.
+public class TranslationService {
+
+    private static final Duration DEBOUNCE_DELAY = Duration.millis(150);
+
+    private final Canvas canvas;
+    private final QueryBuilder translator;
+
+    private final PauseTransition debounce = new PauseTransition(DEBOUNCE_DELAY);
+
+    // Graph of the last translation
+    private Graph graph;
+
+    // Revisions of the elements as of the last translation
+    private Map<Long, Long> vertexRevisions = Collections.emptyMap();
+    private Map<Long, Long> edgeRevisions = Collections.emptyMap();
+
+    public TranslationService(Canvas canvas, QueryBuilder translator) {
+        this.canvas = canvas;
+        this.translator = translator;
+
+        debounce.setOnFinished(e -> refresh());
+        canvas.addListener(observable -> debounce.playFromStart());
+    }
+
+    private void refresh() {
+        Map<Long, Long> vertexRevisions = revisionsOf(canvas.getVertices());
+        Map<Long, Long> edgeRevisions = revisionsOf(canvas.getEdges());
+
+        // Nothing that the query depends on has changed
+        if (vertexRevisions.equals(this.vertexRevisions) && edgeRevisions.equals(this.edgeRevisions))
+            return;
+
+        Collection<Long> changedVertices = changed(vertexRevisions, this.vertexRevisions);
+        Collection<Long> changedEdges = changed(edgeRevisions, this.edgeRevisions);
+
+        if (graph != null &&
+            vertexRevisions.keySet().equals(this.vertexRevisions.keySet()) &&
+            edgeRevisions.keySet().equals(this.edgeRevisions.keySet()) &&
+            changedEdges.stream().allMatch(id -> canvas.getEdge(id).isDirected() == graph.getRelation(id).directed)) {
+            // Only labels and properties have changed
+            for (long id : changedVertices) {
+                Vertex vertex = canvas.getVertex(id);
+                graph.getNode(id).assign(vertex.getLabel(), vertex.getElementProperties());
+            }
+            for (long id : changedEdges) {
+                Edge edge = canvas.getEdge(id);
+                graph.getRelation(id).assign(edge.getLabel(), edge.getElementProperties());
+            }
+        }
+        else
+            graph = new Graph(canvas);
+
+        translator.update(graph, changedVertices, changedEdges);
+
+        this.vertexRevisions = vertexRevisions;
+        this.edgeRevisions = edgeRevisions;
+    }
+
+    private static Map<Long, Long> revisionsOf(Collection<? extends GraphElement> elements) {
+        Map<Long, Long> revisions = new HashMap<>();
+        for (GraphElement element : elements)
+            revisions.put(element.getElementId(), element.getRevision());
+        return revisions;
+    }
+
+    // Revisions are unique among all elements, so a replaced element never looks unchanged
+    private static Collection<Long> changed(Map<Long, Long> current, Map<Long, Long> previous) {
+        return current.entrySet()
+                      .stream()
+                      .filter(entry -> !entry.getValue().equals(previous.get(entry.getKey())))
+                      .map(Map.Entry::getKey)
+                      .toList();
+    }
+}
@@ -0,0 +1,253 @@
+package hkust.edu.visualneo.utils.frontend;
+
+import java.util.Arrays;
+
+// Quadtree over a set of points where every cell knows its mass and centre of mass,
+// so that groups of far away points can act on a point as a single body (Barnes–Hut approximation).
+// All cells live in flat arrays that are reused between builds.
+public class BarnesHutTree {
+
+    private static final int LEAF = -1;
+    private static final int NONE = -1;
+
+    private static final int MAX_DEPTH = 32;  // Points closer than the cells at this depth share a leaf
+    private static final double MIN_DIST = 1e-3;  // Separation assumed between coincident points
+
+    private final double sqrTheta;
+
+    // Cells, the root being cell 0; the children of a cell are four consecutive cells
+    private double[] centerX = new double[0];
+    private double[] centerY = new double[0];
+    private double[] halfSize = new double[0];
+    private double[] mass = new double[0];
+    private double[] massX = new double[0];  // Centre of mass once the build is done
+    private double[] massY = new double[0];
+    private int[] firstChild = new int[0];
+    private int[] firstBody = new int[0];  // Head of the list of points held by a leaf
+    private int cellCount;
+
+    // Points
+    private double[] xs;
+    private double[] ys;
+    private int[] nextBody = new int[0];
+
+    public BarnesHutTree(double theta) {
+        if (theta < 0.0)
+            throw new IllegalArgumentException("Theta should not be negative!");
+        sqrTheta = theta * theta;
+    }
+
+    public void build(double[] xs, double[] ys, int count) {
+        this.xs = xs;
+        this.ys = ys;
+
+        if (nextBody.length < count)
+            nextBody = new int[count];
+        ensureCells(4 * count + 1);
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; ++i) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+
+        cellCount = 0;
+        newCell((minX + maxX) * 0.5, (minY + maxY) * 0.5, Math.max(Math.max(maxX - minX, maxY - minY) * 0.5, MIN_DIST));
+        for (int i = 0; i < count; ++i)
+            insert(i);
+
+        for (int cell = 0; cell < cellCount; ++cell) {
+            if (mass[cell] > 0.0) {
+                massX[cell] /= mass[cell];
+                massY[cell] /= mass[cell];
+            }
+        }
+    }
+
+    // Traversal state of a single thread, so that several threads may walk the tree once it is built
+    public Walker walker() {
+        return new Walker();
+    }
+
+    public class Walker {
+
+        // Each opened cell pushes four children and pops one, and leaves are never deeper than MAX_DEPTH
+        private final int[] stack = new int[3 * MAX_DEPTH + 4];
+
+        private double dispX;
+        private double dispY;
+
+        public double dispX() {
+            return dispX;
+        }
+
+        public double dispY() {
+            return dispY;
+        }
+
+        // Compute the displacement of point i caused by all other points, where each other point
+        // contributes repulsion * (p_i - p_j) / d^2 within the cutoff distance plus attraction * (p_j - p_i) * d
+        public void accumulate(int i, double repulsion, double cutoff, double attraction) {
+            double x = xs[i];
+            double y = ys[i];
+            double sqrCutoff = cutoff * cutoff;
+            boolean prunable = attraction == 0.0;
+
+            double dispX = 0.0;
+            double dispY = 0.0;
+
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                int cell = stack[--top];
+                if (mass[cell] == 0.0)
+                    continue;
+
+                if (firstChild[cell] == LEAF) {
+                    for (int j = firstBody[cell]; j != NONE; j = nextBody[j]) {
+                        if (j == i)
+                            continue;
+                        double dx = xs[j] - x;
+                        double dy = ys[j] - y;
+                        double sqrDist = dx * dx + dy * dy;
+                        if (sqrDist == 0.0) {  // Push coincident points apart in a consistent direction
+                            dx = j > i ? MIN_DIST : -MIN_DIST;
+                            sqrDist = MIN_DIST * MIN_DIST;
+                        }
+                        if (sqrDist <= sqrCutoff) {
+                            double factor = repulsion / sqrDist;
+                            dispX -= dx * factor;
+                            dispY -= dy * factor;
+                        }
+                        double factor = attraction * Math.sqrt(sqrDist);
+                        dispX += dx * factor;
+                        dispY += dy * factor;
+                    }
+                    continue;
+                }
+
+                double h = halfSize[cell];
+                double outsideX = Math.max(Math.abs(x - centerX[cell]) - h, 0.0);
+                double outsideY = Math.max(Math.abs(y - centerY[cell]) - h, 0.0);
+                double sqrBoxDist = outsideX * outsideX + outsideY * outsideY;
+                if (prunable && sqrBoxDist > sqrCutoff)  // No point of the cell is close enough to repel
+                    continue;
+
+                double dx = massX[cell] - x;
+                double dy = massY[cell] - y;
+                double sqrDist = dx * dx + dy * dy;
+                double size = 2.0 * h;
+                if (sqrBoxDist > 0.0 && size * size < sqrTheta * sqrDist) {
+                    double m = mass[cell];
+                    if (sqrDist <= sqrCutoff) {
+                        double factor = m * repulsion / sqrDist;
+                        dispX -= dx * factor;
+                        dispY -= dy * factor;
+                    }
+                    double factor = m * attraction * Math.sqrt(sqrDist);
+                    dispX += dx * factor;
+                    dispY += dy * factor;
+                    continue;
+                }
+
+                int child = firstChild[cell];
+                stack[top++] = child;
+                stack[top++] = child + 1;
+                stack[top++] = child + 2;
+                stack[top++] = child + 3;
+            }
+
+            this.dispX = dispX;
+            this.dispY = dispY;
+        }
+    }
+
+    private void insert(int i) {
+        double x = xs[i];
+        double y = ys[i];
+
+        int cell = 0;
+        int depth = 0;
+        while (true) {
+            mass[cell] += 1.0;
+            massX[cell] += x;
+            massY[cell] += y;
+
+            if (firstChild[cell] != LEAF) {
+                cell = childOf(cell, x, y);
+                ++depth;
+                continue;
+            }
+
+            int existing = firstBody[cell];
+            if (existing == NONE || depth >= MAX_DEPTH) {
+                nextBody[i] = existing;
+                firstBody[cell] = i;
+                return;
+            }
+
+            // Split the leaf and move its point down before descending with the new one
+            subdivide(cell);
+            firstBody[cell] = NONE;
+            int child = childOf(cell, xs[existing], ys[existing]);
+            mass[child] = 1.0;
+            massX[child] = xs[existing];
+            massY[child] = ys[existing];
+            firstBody[child] = existing;
+            nextBody[existing] = NONE;
+
+            cell = childOf(cell, x, y);
+            ++depth;
+        }
+    }
+
+    private void subdivide(int cell) {
+        double quarter = halfSize[cell] * 0.5;
+        double cx = centerX[cell];
+        double cy = centerY[cell];
+        firstChild[cell] = cellCount;
+        newCell(cx - quarter, cy - quarter, quarter);
+        newCell(cx + quarter, cy - quarter, quarter);
+        newCell(cx - quarter, cy + quarter, quarter);
+        newCell(cx + quarter, cy + quarter, quarter);
+    }
+
+    private int childOf(int cell, double x, double y) {
+        int child = firstChild[cell];
+        if (x >= centerX[cell])
+            child += 1;
+        if (y >= centerY[cell])
+            child += 2;
+        return child;
+    }
+
+    private void newCell(double cx, double cy, double h) {
+        ensureCells(cellCount + 1);
+        centerX[cellCount] = cx;
+        centerY[cellCount] = cy;
+        halfSize[cellCount] = h;
+        mass[cellCount] = 0.0;
+        massX[cellCount] = 0.0;
+        massY[cellCount] = 0.0;
+        firstChild[cellCount] = LEAF;
+        firstBody[cellCount] = NONE;
+        ++cellCount;
+    }
+
+    private void ensureCells(int capacity) {
+        if (centerX.length >= capacity)
+            return;
+        int length = Math.max(capacity, centerX.length * 2);
+        centerX = Arrays.copyOf(centerX, length);
+        centerY = Arrays.copyOf(centerY, length);
+        halfSize = Arrays.copyOf(halfSize, length);
+        mass = Arrays.copyOf(mass, length);
+        massX = Arrays.copyOf(massX, length);
+        massY = Arrays.copyOf(massY, length);
+        firstChild = Arrays.copyOf(firstChild, length);
+        firstBody = Arrays.copyOf(firstBody, length);
+    }
+}
@@ -3,19 +3,23 @@ package hkust.edu.visualneo.utils.frontend;
 import hkust.edu.visualneo.utils.backend.*;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
+import javafx.beans.binding.Bindings;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.SimpleSetProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableSet;
 import javafx.collections.SetChangeListener;
-import javafx.event.EventTarget;
 import javafx.geometry.BoundingBox;
 import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
+import javafx.scene.Group;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
+import javafx.scene.transform.Affine;
 
 import java.util.*;
 import java.util.concurrent.Callable;
@@ -33,18 +37,43 @@ public class Canvas extends Pane implements Observable {
         MODIFIABLE
     }
 
+    public enum LayoutAlgorithm {
+        AUTO,        // Multilevel for large graphs, exact otherwise
+        EXACT,       // Exact repulsion between the pairs closer than the cutoff, found through a grid
+        BARNES_HUT,  // Quadtree-approximated repulsion
+        MULTILEVEL   // Coarsen, lay out the coarsest graph, then interpolate and refine
+    }
+
     private static final double UNIT_SCROLL = 32.0;
 
     private static final int SEARCH_SAMPLES = 20;
 
+    private static final double CULL_MARGIN = 4.0 * Vertex.VERTEX_RADIUS;  // Covers vertex labels and self-loops
+
+    private static final int IMMEDIATE_THRESHOLD = 1000;  // Element count above which read-only canvases draw into one surface
+
+    // Vertex count above which AUTO uses the multilevel layout, which wins as soon as it has a level to coarsen
+    private static final int MULTILEVEL_THRESHOLD = ForceDirectedPlacementMultilevel.COARSEST_SIZE;
+
     private static Map<String, Color> colorTable;
 
     private CanvasType type = CanvasType.NONE;
 
+    private LayoutAlgorithm layoutAlgorithm = LayoutAlgorithm.AUTO;
+    private final LayoutService layoutService = new LayoutService(this);
+    private boolean incrementalLayout = false;  // Whether reloading keeps the positions of surviving vertices
+    private double layoutTheta = ForceDirectedPlacementBarnesHut.DEFAULT_THETA;
+
     public final OrthogonalCamera camera = new OrthogonalCamera(this);
 
+    // Holds the element nodes in world coordinates, the camera being applied once by its transform,
+    // so that panning and zooming leave the elements untouched
+    private final Group world = new Group();
+
     private boolean valid = true;
     private Collection<InvalidationListener> listeners = new ArrayList<>();
+    private int updateDepth = 0;
+    private boolean invalidationPending = false;
 
     private final ObservableSet<GraphElement> highlights =
             new SimpleSetProperty<>(this, "highlights", FXCollections.observableSet());
@@ -53,6 +82,7 @@ public class Canvas extends Pane implements Observable {
 
     private Point2D cursor;
     private boolean dragged;
+    private GraphElement pressedElement;  // Picked once per gesture, as the surface of the immediate mode is one node
 
     private final ObjectProperty<Point2D> size =
             new PositionProperty(this, "size");
@@ -62,6 +92,43 @@ public class Canvas extends Pane implements Observable {
 
     private final InvalidationListener elementListener = observable -> markInvalid();
 
+    // Draws the elements of a large read-only canvas, which are then models only and not children of the canvas
+    private ImmediateRenderer renderer;
+
+    // Elements out of view are hidden and unmanaged, so that they are neither rendered nor laid out,
+    // or left out of the drawing when there is a renderer
+    private boolean viewValid = false;
+    private final InvalidationListener viewListener = observable -> invalidateView();
+
+    public Canvas() {
+        Affine view = new Affine();
+        view.mxxProperty().bind(camera.ratioProperty());
+        view.myyProperty().bind(camera.ratioProperty());
+        view.txProperty().bind(Bindings.createDoubleBinding(
+                () -> camera.worldToScreenX(0.0),
+                camera.positionProperty(), camera.ratioProperty(), widthProperty()));
+        view.tyProperty().bind(Bindings.createDoubleBinding(
+                () -> camera.worldToScreenY(0.0),
+                camera.positionProperty(), camera.ratioProperty(), heightProperty()));
+        world.getTransforms().add(view);
+        // Unmanaged so that the extent of the elements does not feed back into the size of the canvas
+        world.setManaged(false);
+        getChildren().add(world);
+
+        camera.viewBoundsProperty().addListener(viewListener);
+        world.getChildren().addListener((ListChangeListener<javafx.scene.Node>) change -> {
+            while (change.next()) {
+                for (javafx.scene.Node node : change.getRemoved())
+                    if (node instanceof Vertex vertex)
+                        vertex.positionProperty().removeListener(viewListener);
+                for (javafx.scene.Node node : change.getAddedSubList())
+                    if (node instanceof Vertex vertex)
+                        vertex.positionProperty().addListener(viewListener);
+            }
+            invalidateView();
+        });
+    }
+
     public static void computeColors(DbMetadata metadata) {
         int numColors = metadata.nodeLabels().size();
         double step = 360.0 / numColors;
@@ -95,13 +162,12 @@ public class Canvas extends Pane implements Observable {
                 if (cursor == null)
                     return;
 
-                EventTarget target = e.getTarget();
+                GraphElement currentElement = pressedElement;
 
-                if (target == this) {
+                if (currentElement == null) {
                     camera.translateInScreen(-(e.getX() - cursor.getX()), -(e.getY() - cursor.getY()));
                 }
                 else {
-                    GraphElement currentElement = (GraphElement) ((javafx.scene.Node) target).getParent();
                     if (currentElement.isHighlighted()) {
                         Point2D delta = camera.screenToWorldScale(e.getX() - cursor.getX(),
                                                                   e.getY() -
@@ -121,13 +187,14 @@ public class Canvas extends Pane implements Observable {
             });
 
             setOnMouseReleased(e -> {
-                EventTarget target = e.getTarget();
-                if (target != this && cursor != null && !dragged) {
+                GraphElement currentElement = pressedElement;
+                if (currentElement != null && cursor != null && !dragged) {
                     clearHighlights();
-                    addHighlight((GraphElement) ((javafx.scene.Node) target).getParent());
+                    addHighlight(currentElement);
                 }
                 cursor = null;
                 dragged = false;
+                pressedElement = null;
             });
 
             setOnScroll(e -> {
@@ -145,6 +212,8 @@ public class Canvas extends Pane implements Observable {
                 }
                 else
                     change.getElementRemoved().setHighlight(false);
+                if (renderer != null)
+                    invalidateView();
             });
 
             if (type == CanvasType.NAVIGABLE) {  // Navigable only
@@ -158,14 +227,13 @@ public class Canvas extends Pane implements Observable {
                 setOnMousePressed(e -> {
                     requestFocus();
                     e.consume();
-                    EventTarget target = e.getTarget();
+                    GraphElement currentElement = pressedElement = elementAt(e);
 
-                    if (target == this) {  // Clicked on Canvas
+                    if (currentElement == null) {  // Clicked on Canvas
                         clearHighlights();
                         cursor = new Point2D(e.getX(), e.getY());
                     }
                     else {  // Clicked on a GraphElement
-                        GraphElement currentElement = (GraphElement) ((javafx.scene.Node) target).getParent();
                         if (e.isShortcutDown()) {
                             if (currentElement.isHighlighted())
                                 removeHighlight(currentElement);
@@ -197,9 +265,9 @@ public class Canvas extends Pane implements Observable {
                 setOnMousePressed(e -> {
                     requestFocus();
                     e.consume();
-                    EventTarget target = e.getTarget();
+                    GraphElement currentElement = pressedElement = elementAt(e);
 
-                    if (target == this) {  // Clicked on Canvas
+                    if (currentElement == null) {  // Clicked on Canvas
                         if (e.isShiftDown())
                             createVertex(new Point2D(e.getX(), e.getY()));
                         else {
@@ -208,7 +276,6 @@ public class Canvas extends Pane implements Observable {
                         }
                     }
                     else {  // Clicked on a GraphElement
-                        GraphElement currentElement = (GraphElement) ((javafx.scene.Node) target).getParent();
                         Vertex lastVertex = nomineeVertex();
                         if (e.isShiftDown() && lastVertex != null && currentElement instanceof Vertex currentVertex)
                             createEdge(lastVertex, currentVertex, true);
@@ -232,45 +299,164 @@ public class Canvas extends Pane implements Observable {
     }
 
     public void loadGraph(Graph graph) {
-        clearElements();
-
-        Long maxId = Stream.concat(graph.getNodes().stream(), graph.getRelations().stream())
-                           .map(Entity::getId)
-                           .max(Long::compareTo)
-                           .get();
-        GraphElement.raiseIdTo(maxId);
-
-        graph.getNodes().forEach(node -> {
-            Vertex vertex = new Vertex(this, node);
-            vertices.put(node.getId(), vertex);
-            getChildren().add(vertex);
-            vertex.addListener(elementListener);
+        Map<Long, Point2D> previousPositions = incrementalLayout ?
+                                               getPositionMap() :
+                                               Collections.emptyMap();
+        beginUpdate();
+        try {
+            clearElements();
+
+            Long maxId = Stream.concat(graph.getNodes().stream(), graph.getRelations().stream())
+                               .map(Entity::getId)
+                               .max(Long::compareTo)
+                               .get();
+            GraphElement.raiseIdTo(maxId);
+
+            if (type != CanvasType.MODIFIABLE && graph.nodeCount() + graph.relationCount() > IMMEDIATE_THRESHOLD) {
+                renderer = new ImmediateRenderer(this);
+                getChildren().add(renderer.getSurface());
+            }
+
+            graph.getNodes().forEach(this::loadVertex);
+            graph.getRelations().forEach(this::loadEdge);
+
+            // Edges below vertices, inserted at once
+            if (renderer == null)
+                world.getChildren().setAll(Stream.concat(edges.values().stream(), vertices.values().stream()).toList());
+            markInvalid();
+        }
+        finally {
+            endUpdate();
+        }
+
+        layOut(previousPositions);
+    }
+
+    // Add the given nodes and relations of the graph that are not on the canvas yet, e.g. the next page of results,
+    // and lay them out around the elements already there, which are kept as they are
+    public void appendGraph(Graph graph, Collection<Long> nodeIds, Collection<Long> relationIds) {
+        List<Node> newNodes = nodeIds.stream()
+                                     .filter(id -> !vertices.containsKey(id))
+                                     .map(graph::getNode)
+                                     .toList();
+        List<Relation> newRelations = relationIds.stream()
+                                                 .filter(id -> !edges.containsKey(id))
+                                                 .map(graph::getRelation)
+                                                 .toList();
+        if (newNodes.isEmpty() && newRelations.isEmpty())
+            return;
+
+        // Growing past the threshold takes the other kind of rendering, so everything is loaded again
+        int elementCount = vertices.size() + edges.size() + newNodes.size() + newRelations.size();
+        if (renderer == null && type != CanvasType.MODIFIABLE && elementCount > IMMEDIATE_THRESHOLD) {
+            loadGraph(graph);
+            return;
+        }
+
+        Map<Long, Point2D> previousPositions = getPositionMap();
+        beginUpdate();
+        try {
+            GraphElement.raiseIdTo(Stream.concat(newNodes.stream(), newRelations.stream())
+                                         .map(Entity::getId)
+                                         .max(Long::compareTo)
+                                         .get());
+
+            List<Vertex> newVertices = newNodes.stream().map(this::loadVertex).toList();
+            List<Edge> newEdges = newRelations.stream().map(this::loadEdge).toList();
+
+            // Edges below vertices, which all come after the edges
+            if (renderer == null) {
+                world.getChildren().addAll(edges.size() - newEdges.size(), newEdges);
+                world.getChildren().addAll(newVertices);
+            }
+            else
+                invalidateView();
+            markInvalid();
+        }
+        finally {
+            endUpdate();
+        }
+
+        layOut(previousPositions);
+    }
+
+    private Vertex loadVertex(Node node) {
+        Vertex vertex = new Vertex(this, node);
+        vertices.put(node.getId(), vertex);
+        vertex.addListener(elementListener);
+        if (renderer != null)
+            vertex.positionProperty().addListener(viewListener);
+        return vertex;
+    }
+
+    private Edge loadEdge(Relation relation) {
+        Edge edge = new Edge(this, relation);
+        edges.put(relation.getId(), edge);
+        edge.addListener(elementListener);
+        return edge;
+    }
+
+    // Compute the layout of the graph, in the background if it is large
+    // A warm started layout keeps the camera where it is, so that the picture stays put
+    private void layOut(Map<Long, Point2D> previousPositions) {
+        ForceDirectedPlacementStatic placement = createPlacement();
+        boolean warm = placement.warmStart(previousPositions);
+        layoutService.run(placement, () -> {
+            if (!warm && getHighlights().isEmpty())
+                frameAllElements(false, false);
         });
+    }
+
+    public Map<Long, Point2D> getPositionMap() {
+        return vertices.values()
+                       .stream()
+                       .collect(Collectors.toMap(Vertex::getElementId, Vertex::getPosition));
+    }
 
-        graph.getRelations().forEach(relation -> {
-            Edge edge = new Edge(this, relation);
-            edges.put(relation.getId(), edge);
-            getChildren().add(0, edge);
-            edge.addListener(elementListener);
+    // Move the vertices to the given positions, ignoring those no longer on the canvas
+    public void applyPositions(Map<Long, Point2D> positions) {
+        positions.forEach((id, position) -> {
+            Vertex vertex = getVertex(id);
+            if (vertex != null)
+                vertex.setPosition(position);
         });
-        markInvalid();
+    }
+
+    private ForceDirectedPlacementStatic createPlacement() {
+        LayoutAlgorithm algorithm = layoutAlgorithm;
+        // Barnes–Hut alone is never picked: the exact repulsion only visits the pairs in neighbouring cells
+        // of a grid as large as the cutoff, which costs less per iteration than the quadtree at any size
+        if (algorithm == LayoutAlgorithm.AUTO)
+            algorithm = vertices.size() > MULTILEVEL_THRESHOLD ? LayoutAlgorithm.MULTILEVEL : LayoutAlgorithm.EXACT;
+        return switch (algorithm) {
+            case BARNES_HUT -> new ForceDirectedPlacementBarnesHut(this, layoutTheta);
+            case MULTILEVEL -> new ForceDirectedPlacementMultilevel(this);
+            default -> new ForceDirectedPlacementStatic(this);
+        };
+    }
+
+    public void setLayoutAlgorithm(LayoutAlgorithm layoutAlgorithm) {
+        this.layoutAlgorithm = Objects.requireNonNull(layoutAlgorithm);
+    }
 
-        // Compute the layout of the graph
-        ForceDirectedPlacementStatic placement = new ForceDirectedPlacementStatic(this);
-        placement.simulate(0);
-        placement.layout();
+    public void setIncrementalLayout(boolean incrementalLayout) {
+        this.incrementalLayout = incrementalLayout;
+    }
 
-        frameAllElements(false, false);
+    public void setLayoutTheta(double layoutTheta) {
+        if (layoutTheta < 0.0)
+            throw new IllegalArgumentException("Theta should not be negative!");
+        this.layoutTheta = layoutTheta;
     }
 
     public void loadCanvas(Canvas other, Point2D positionShift) {
         Map<Long, Vertex> vertexCopies = new HashMap<>();
+        List<GraphElement> edgeCopies = new ArrayList<>();
 
         other.getVertices().forEach(vertex -> {
             Vertex copy = new Vertex(this, vertex);
             copy.translate(positionShift);
             vertices.put(copy.getElementId(), copy);
-            getChildren().add(copy);
             vertexCopies.put(vertex.getElementId(), copy);
             copy.addListener(elementListener);
         });
@@ -278,13 +464,31 @@ public class Canvas extends Pane implements Observable {
         other.getEdges().forEach(edge -> {
             Edge copy = new Edge(this, edge, vertexCopies);
             edges.put(copy.getElementId(), copy);
-            getChildren().add(0, copy);
+            edgeCopies.add(copy);
             copy.addListener(elementListener);
         });
 
+        // Edges below all vertices, vertices above all edges, each inserted at once
+        world.getChildren().addAll(0, edgeCopies);
+        world.getChildren().addAll(vertexCopies.values());
         markInvalid();
     }
 
+    // Changes until the matching endUpdate notify the listeners of the canvas once, at the end.
+    // Updates may be nested.
+    public void beginUpdate() {
+        ++updateDepth;
+    }
+
+    public void endUpdate() {
+        if (updateDepth == 0)
+            throw new IllegalStateException("No update to end!");
+        if (--updateDepth == 0 && invalidationPending) {
+            invalidationPending = false;
+            markInvalid();
+        }
+    }
+
     public void rotateSearch(Callable<Double> criteria) {
         double stepAngle = Math.PI / SEARCH_SAMPLES;
         double cos = Math.cos(stepAngle);
@@ -352,13 +556,16 @@ public class Canvas extends Pane implements Observable {
         if (elements.isEmpty())
             return null;
 
+        if (renderer != null)
+            return renderer.computeBounds(elements);
+
         double minX = Double.POSITIVE_INFINITY;
         double minY = Double.POSITIVE_INFINITY;
         double maxX = Double.NEGATIVE_INFINITY;
         double maxY = Double.NEGATIVE_INFINITY;
 
         for (GraphElement element : elements) {
-            Bounds bounds = element.getBoundsInParent();
+            Bounds bounds = element.getBoundsInParent();  // In world coordinates, within the element layer
 
             double boundMinX = bounds.getMinX();
             double boundMinY = bounds.getMinY();
@@ -375,11 +582,6 @@ public class Canvas extends Pane implements Observable {
                 maxY = boundMaxY;
         }
 
-        minX = camera.screenToWorldX(minX);
-        minY = camera.screenToWorldY(minY);
-        maxX = camera.screenToWorldX(maxX);
-        maxY = camera.screenToWorldY(maxY);
-
         return new BoundingBox(minX, minY, maxX - minX, maxY - minY);
     }
 
@@ -398,7 +600,27 @@ public class Canvas extends Pane implements Observable {
     }
 
     public Collection<GraphElement> getElements() {
-        return getChildren().stream().map(node -> (GraphElement) node).toList();
+        if (renderer != null)
+            return Stream.concat(getEdges().stream(), getVertices().stream()).map(GraphElement.class::cast).toList();
+        return world.getChildren().stream().map(node -> (GraphElement) node).toList();
+    }
+
+    // Parent of the element nodes, in world coordinates
+    public Group elementLayer() {
+        return world;
+    }
+
+    // Whether the elements are drawn by a renderer instead of being nodes of their own
+    public boolean isImmediate() {
+        return renderer != null;
+    }
+
+    // The element under the cursor, or null over the background
+    private GraphElement elementAt(MouseEvent e) {
+        if (renderer != null)
+            return renderer.pick(e.getX(), e.getY());
+        return e.getTarget() == this ?
+               null : (GraphElement) ((javafx.scene.Node) e.getTarget()).getParent();
     }
 
     public Collection<Vertex> getVertices() {
@@ -429,7 +651,7 @@ public class Canvas extends Pane implements Observable {
 
     private void addElement(GraphElement element) {
         element.addListener(elementListener);
-        getChildren().add(element);
+        world.getChildren().add(element);
         clearHighlights();
         addHighlight(element);
         markInvalid();
@@ -437,7 +659,7 @@ public class Canvas extends Pane implements Observable {
 
     private void removeElement(GraphElement element) {
         element.removeListener(elementListener);
-        getChildren().remove(element);
+        world.getChildren().remove(element);
         element.erase();
         clearHighlights();
         markInvalid();
@@ -445,17 +667,22 @@ public class Canvas extends Pane implements Observable {
 
     private void removeElements(Collection<GraphElement> elements) {
         elements.forEach(element -> element.removeListener(elementListener));
-        getChildren().removeAll(elements);
+        world.getChildren().removeAll(elements);
         elements.forEach(GraphElement::erase);
         clearHighlights();
         markInvalid();
     }
 
     public void clearElements() {
+        layoutService.cancel();
         getElements().forEach(element -> element.removeListener(elementListener));
         vertices.clear();
         edges.clear();
-        getChildren().clear();
+        world.getChildren().clear();
+        if (renderer != null)
+            getChildren().remove(renderer.getSurface());
+        renderer = null;
+        pressedElement = null;  // A gesture begun on a removed element goes on as a pan
         clearHighlights();
         markInvalid();
     }
@@ -483,7 +710,7 @@ public class Canvas extends Pane implements Observable {
         highlights.addAll(elements);
     }
     public void highlightAll() {
-        addHighlights(getChildren().stream().map(node -> (GraphElement) node).toList());
+        addHighlights(getElements());
     }
 
     public void removeHighlight(GraphElement element) {
@@ -509,7 +736,68 @@ public class Canvas extends Pane implements Observable {
             size.set(newSize);
     }
 
+    @Override
+    protected void layoutChildren() {
+        if (!viewValid) {
+            viewValid = true;
+            if (renderer != null)
+                renderer.draw();
+            else
+                cull();
+        }
+        super.layoutChildren();
+    }
+
+    private void invalidateView() {
+        if (viewValid) {
+            viewValid = false;
+            requestLayout();
+        }
+    }
+
+    private void cull() {
+        Bounds area = cullingArea();
+        for (Vertex vertex : vertices.values())
+            setCulled(vertex, isOutside(vertex, area));
+        for (Edge edge : edges.values())
+            setCulled(edge, isOutside(edge, area));
+    }
+
+    // The view grown by the margin that elements may reach beyond their vertices
+    Bounds cullingArea() {
+        Bounds view = camera.getViewBounds();
+        return new BoundingBox(view.getMinX() - CULL_MARGIN, view.getMinY() - CULL_MARGIN,
+                               view.getWidth() + 2.0 * CULL_MARGIN, view.getHeight() + 2.0 * CULL_MARGIN);
+    }
+
+    static boolean isOutside(Vertex vertex, Bounds area) {
+        double x = vertex.getX();
+        double y = vertex.getY();
+        return x < area.getMinX() || x > area.getMaxX() || y < area.getMinY() || y > area.getMaxY();
+    }
+
+    static boolean isOutside(Edge edge, Bounds area) {
+        double x1 = edge.startVertex.getX();
+        double y1 = edge.startVertex.getY();
+        double x2 = edge.endVertex.getX();
+        double y2 = edge.endVertex.getY();
+        // Parallel edges bend away from the line between their vertices
+        double bulge = edge.startVertex.getNumEdgesBetween(edge.endVertex) > 1 ?
+                       0.5 * Math.hypot(x2 - x1, y2 - y1) : 0.0;
+        return Math.max(x1, x2) + bulge < area.getMinX() || Math.min(x1, x2) - bulge > area.getMaxX() ||
+               Math.max(y1, y2) + bulge < area.getMinY() || Math.min(y1, y2) - bulge > area.getMaxY();
+    }
+
+    private static void setCulled(GraphElement element, boolean culled) {
+        element.setVisible(!culled);
+        element.setManaged(!culled);
+    }
+
     protected void markInvalid() {
+        if (updateDepth > 0) {
+            invalidationPending = true;
+            return;
+        }
         if (valid) {
             valid = false;
             invalidated();
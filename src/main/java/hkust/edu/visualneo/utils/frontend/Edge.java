@@ -22,18 +22,18 @@ import static java.lang.Math.PI;
 
 public class Edge extends GraphElement {
 
-    private static final double GAP_ANGLE = PI / 12;
-    private static final double LOOP_SPAN_ANGLE = PI / 6;
-    private static final double LOOP_GAP_ANGLE = PI / 18;
-    private static final double ARROWHEAD_ANGLE = PI / 3;
-    private static final double LINE_LENGTH = 2.0 * VERTEX_RADIUS;
-    private static final double ARROWHEAD_LENGTH = 5.0;
-    private static final double TEXT_GAP = 10.0;
+    static final double GAP_ANGLE = PI / 12;
+    static final double LOOP_SPAN_ANGLE = PI / 6;
+    static final double LOOP_GAP_ANGLE = PI / 18;
+    static final double ARROWHEAD_ANGLE = PI / 3;
+    static final double LINE_LENGTH = 2.0 * VERTEX_RADIUS;
+    static final double ARROWHEAD_LENGTH = 5.0;
+    static final double TEXT_GAP = 10.0;
     private static final double TEXT_EPSILON = 4.0;
-    private static final double LINE_STROKE_WIDTH = 1.5;
-    private static final double HIGHLIGHT_STROKE_WIDTH = 15.0;
-    private static final Color LINE_COLOR = new Color(0.0, 0.0, 0.0, 0.4);
-    private static final Font TEXT_FONT = Font.font("Verdana", FontWeight.THIN, 8.0);
+    static final double LINE_STROKE_WIDTH = 1.5;
+    static final double HIGHLIGHT_STROKE_WIDTH = 15.0;
+    static final Color LINE_COLOR = new Color(0.0, 0.0, 0.0, 0.4);
+    static final Font TEXT_FONT = Font.font("Verdana", FontWeight.THIN, 8.0);
 
     public final Vertex startVertex;
     public final Vertex endVertex;
@@ -92,7 +92,8 @@ public class Edge extends GraphElement {
 
         // Notify two vertices to attach it
         attach();
-        initializeGraphics();
+        if (!canvas.isImmediate())
+            initializeGraphics();
 
         // Add the label and properties (if any)
         setLabel(relation.getLabel());
@@ -182,6 +183,7 @@ public class Edge extends GraphElement {
             }
 
             directedProperty().addListener((observable, oldValue, newValue) -> toggleArrowHead());
+            detailedProperty().addListener((observable, oldValue, newValue) -> toggleArrowHead());
         }
         else {  // Crossing-arc case
             positionProperty().bind(Bindings.createObjectBinding(
@@ -214,6 +216,7 @@ public class Edge extends GraphElement {
                     (observable, oldValue, newValue) -> updateCrossingArc(d, offsetAngle);
 
             directedProperty().addListener(updateListener);
+            detailedProperty().addListener(updateListener);
             d.addListener(updateListener);
             offsetAngle.addListener(updateListener);
             labelProperty().addListener(updateListener);
@@ -307,7 +310,7 @@ public class Edge extends GraphElement {
                 arc().getElements().addAll(move, arc);
         }
 
-        if (isDirected()) {
+        if (isDirected() && isDetailed()) {
             double h1Cos = Math.cos(offsetAngle + ARROWHEAD_ANGLE * 0.5);
             double h1Sin = Math.sin(offsetAngle + ARROWHEAD_ANGLE * 0.5);
             double h1X = aX - ARROWHEAD_LENGTH * h1Cos;
@@ -326,10 +329,9 @@ public class Edge extends GraphElement {
 
     // Only used for self-loops
     private void toggleArrowHead() {
-        if (isDirected())
+        arc().getElements().removeAll(arrowHead);
+        if (isDirected() && isDetailed())
             arc().getElements().addAll(arrowHead);
-        else
-            arc().getElements().removeAll(arrowHead);
     }
 
     @Override
@@ -381,7 +383,7 @@ public class Edge extends GraphElement {
     @Override
     public void erase() {
         canvas.erase(this);
-        canvas.getChildren().remove(this);
+        canvas.elementLayer().getChildren().remove(this);
         startVertex.detach(this);
         endVertex.detach(this);
     }
@@ -0,0 +1,48 @@
+package hkust.edu.visualneo.utils.frontend;
+
+// Static placement whose repulsion (and edge-less attraction) is approximated with a Barnes–Hut quadtree,
+// which takes O(n log n) per iteration instead of O(n^2)
+public class ForceDirectedPlacementBarnesHut extends ForceDirectedPlacementStatic {
+
+    public static final double DEFAULT_THETA = 0.8;
+
+    private final BarnesHutTree tree;
+
+    public ForceDirectedPlacementBarnesHut(Canvas canvas) {
+        this(canvas, DEFAULT_THETA);
+    }
+
+    // Cells whose size divided by their distance is below theta are treated as single bodies,
+    // so 0 computes the exact forces and larger values trade accuracy for speed
+    public ForceDirectedPlacementBarnesHut(Canvas canvas, double theta) {
+        super(canvas);
+        tree = new BarnesHutTree(theta);
+    }
+
+    ForceDirectedPlacementBarnesHut(int vertexCount, int[] starts, int[] ends, double[] xs, double[] ys, double theta) {
+        super(vertexCount, starts, ends, xs, ys);
+        tree = new BarnesHutTree(theta);
+    }
+
+    @Override
+    protected void computeRepulsion() {
+        tree.build(xs, ys, vertexCount);
+        kernel.forEachRange(vertexCount, (start, end) -> apply(start, end, SQR_OPT_DIST, maxRepDist, 0.0));
+    }
+
+    // Reuses the tree built by computeRepulsion, as the positions have not moved since
+    @Override
+    protected void computeMutualAttraction() {
+        kernel.forEachRange(vertexCount, (start, end) -> apply(start, end, 0.0, 0.0, INV_OPT_DIST));
+    }
+
+    // Each vertex only writes its own displacement, so ranges may be processed concurrently
+    private void apply(int start, int end, double repulsion, double cutoff, double attraction) {
+        BarnesHutTree.Walker walker = tree.walker();
+        for (int i = start; i < end; ++i) {
+            walker.accumulate(i, repulsion, cutoff, attraction);
+            dispXs[i] += walker.dispX();
+            dispYs[i] += walker.dispY();
+        }
+    }
+}
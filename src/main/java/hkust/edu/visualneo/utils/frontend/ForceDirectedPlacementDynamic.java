@@ -32,11 +32,17 @@ public class ForceDirectedPlacementDynamic {
     private final Long[] ids;
     private final Map<Long, Integer> indices;
 
-    private final Collection<Pair<Integer>> pairs;
+    // Ends of the edges without self-loops
+    private final int[] starts;
+    private final int[] ends;
 
-    private final Point2D[] positions;
-    private final Point2D[] velocities;
-    private final Point2D[] forces;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] velXs;
+    private final double[] velYs;
+
+    private final ForceKernel kernel;
+    private final SpatialGrid grid = new SpatialGrid();  // Cells as large as MAX_REP_DIST, rebuilt every iteration
 
     private double time = 0;
 
@@ -45,6 +51,7 @@ public class ForceDirectedPlacementDynamic {
     public ForceDirectedPlacementDynamic(Canvas canvas) {
         this.canvas = canvas;
         vertexCount = canvas.getVertices().size();
+        kernel = ForceKernel.of(vertexCount);
 
         ids = canvas.getVertices().stream().map(Vertex::getElementId).toArray(Long[]::new);
         indices = IntStream.range(0, vertexCount)
@@ -52,31 +59,35 @@ public class ForceDirectedPlacementDynamic {
                            .collect(Collectors.toMap(i -> ids[i], Function.identity()));
 
         // Remove self-loops and only count
-        pairs = canvas.getEdges()
-                      .stream()
-                      .filter(edge -> !edge.isSelfLoop())
-                      .map(edge -> new Pair<>(indices.get(edge.startVertex.getElementId()), indices.get(edge.endVertex.getElementId())))
-                      .collect(Collectors.toSet());
+        Collection<Pair<Integer>> pairs = canvas.getEdges()
+                                                .stream()
+                                                .filter(edge -> !edge.isSelfLoop())
+                                                .map(edge -> new Pair<>(indices.get(edge.startVertex.getElementId()), indices.get(edge.endVertex.getElementId())))
+                                                .collect(Collectors.toSet());
+        starts = pairs.stream().mapToInt(Pair::head).toArray();
+        ends = pairs.stream().mapToInt(Pair::tail).toArray();
 
 //        double max = OPT_DIST * Math.min(Math.sqrt(vertexCount), 10.0) * 0.5;
         double max = OPT_DIST * Math.sqrt(vertexCount) * 0.5;
         double min = -max;
 
-        positions = new Point2D[vertexCount];
-        velocities = new Point2D[vertexCount];
-        forces = new Point2D[vertexCount];
-        Arrays.setAll(positions, i -> randomPoint(min, max));
-        Arrays.fill(velocities, Point2D.ZERO);
-        Arrays.fill(forces, Point2D.ZERO);
+        xs = new double[vertexCount];
+        ys = new double[vertexCount];
+        velXs = new double[vertexCount];
+        velYs = new double[vertexCount];
+        for (int i = 0; i < vertexCount; ++i) {
+            xs[i] = rand.nextDouble(min, max);
+            ys[i] = rand.nextDouble(min, max);
+        }
     }
 
     public void layout() {
         for (int i = 0; i < vertexCount; ++i)
-            canvas.getVertex(ids[i]).setPosition(positions[i]);
+            canvas.getVertex(ids[i]).setPosition(new Point2D(xs[i], ys[i]));
     }
 
     public Map<Long, Point2D> getPositionMap() {
-        return IntStream.range(0, vertexCount).boxed().collect(Collectors.toMap(i -> ids[i], i -> positions[i]));
+        return IntStream.range(0, vertexCount).boxed().collect(Collectors.toMap(i -> ids[i], i -> new Point2D(xs[i], ys[i])));
     }
 
     public void simulate(double duration) {
@@ -85,69 +96,30 @@ public class ForceDirectedPlacementDynamic {
 
     public void simulate() {
         // Compute repulsive displacements
-        for (int i = 0; i < vertexCount; ++i) {
-            for (int j = i + 1; j < vertexCount; ++j) {
-                Point2D diff = positions[j].subtract(positions[i]);
-                Point2D disp = repDisp(diff);
-                velocities[i] = velocities[i].subtract(disp);
-                velocities[j] = velocities[j].add(disp);
-            }
-        }
+        grid.build(xs, ys, vertexCount, MAX_REP_DIST);
+        kernel.repulse(grid, xs, ys, velXs, velYs, SQR_OPT_DIST, MAX_REP_DIST);
 
         // Compute attractive displacements
-        for (Pair<Integer> pair : pairs) {
-            int i = pair.head();
-            int j = pair.tail();
-
-            Point2D diff = positions[j].subtract(positions[i]);
-            Point2D disp = attDisp(diff);
-            velocities[i] = velocities[i].add(disp);
-            velocities[j] = velocities[j].subtract(disp);
-        }
+        kernel.attract(xs, ys, velXs, velYs, starts, ends, INV_OPT_DIST);
 
         // Compute gravities
-        for (int i = 0; i < vertexCount; ++i)
-            velocities[i] = velocities[i].add(gravity(positions[i]));
+        kernel.gravitate(xs, ys, velXs, velYs, vertexCount, GRAV_COEF);
 
         // Apply displacements
-        for (int i = 0; i < vertexCount; ++i) {
-            Point2D disp = velocities[i];
-            positions[i] = positions[i].add(disp.multiply(Math.min(1.0, temp / disp.magnitude())));
-        }
+        kernel.displace(xs, ys, velXs, velYs, vertexCount, temp);
 
         // Cooling
         cool();
 
         // Clear all displacements
-        Arrays.fill(velocities, Point2D.ZERO);
+        Arrays.fill(velXs, 0.0);
+        Arrays.fill(velYs, 0.0);
 
         // Increment iteration count
         ++time;
     }
 
-    // Attractive and repulsive displacements between u and v
-    // diff = v - u
-    // The displacements have the same direction as diff
-    private Point2D attDisp(Point2D diff) {
-        double dist = diff.magnitude();
-        return diff.multiply(INV_OPT_DIST * dist);
-    }
-    private Point2D repDisp(Point2D diff) {
-        double dist = diff.magnitude();
-        if (dist > MAX_REP_DIST)
-            return Point2D.ZERO;
-        return diff.multiply(SQR_OPT_DIST / (dist * dist));
-    }
-
-    private Point2D gravity(Point2D pos) {
-        return Point2D.ZERO.subtract(pos).multiply(GRAV_COEF);
-    }
-
     private void cool() {
         temp = INIT_TEMP / (1 + Math.log(1 + time));
     }
-
-    private static Point2D randomPoint(double min, double max) {
-        return new Point2D(rand.nextDouble(min, max), rand.nextDouble(min, max));
-    }
 }
@@ -0,0 +1,221 @@
+package hkust.edu.visualneo.utils.frontend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+// Multilevel placement in the style of Walshaw: the graph is coarsened by repeatedly collapsing the edges
+// of a matching, the coarsest graph is laid out from scratch, and every finer level starts from the
+// positions of its coarser level and is refined with a few iterations of the same force model.
+public class ForceDirectedPlacementMultilevel extends ForceDirectedPlacementStatic {
+
+    private static final Random rand = new Random();
+
+    static final int COARSEST_SIZE = 50;  // Stop coarsening at this many vertices
+    private static final double MIN_SHRINK = 0.9;  // Stop coarsening once a level keeps more than this fraction of vertices
+
+    private static final int COARSEST_ITERATIONS = 1000;
+    private static final int MAX_REFINE_ITERATIONS = 100;  // For the coarsest refined level
+    private static final int MIN_REFINE_ITERATIONS = 30;  // For the finest refined level above the graph itself
+    private static final int FINEST_REFINE_ITERATIONS = 100;  // Max number of iterations refining the graph itself
+
+    private static final double JITTER = 0.1 * OPT_DIST;  // Maximum offset of interpolated vertices from their parent
+
+    public ForceDirectedPlacementMultilevel(Canvas canvas) {
+        super(canvas);
+    }
+
+    ForceDirectedPlacementMultilevel(int vertexCount, int[] starts, int[] ends, double[] xs, double[] ys) {
+        super(vertexCount, starts, ends, xs, ys);
+    }
+
+    @Override
+    public void simulate(BooleanSupplier proceed) {
+        if (vertexCount <= 1)
+            return;
+
+        // Previous positions only need the refinement of the graph itself
+        if (isWarmStarted()) {
+            super.simulate(proceed);
+            return;
+        }
+
+        List<Level> levels = coarsen();
+        if (levels.size() == 1) {  // Nothing to collapse, e.g. no edges
+            super.simulate(proceed);
+            return;
+        }
+
+        // Lay out the coarsest level from scratch
+        int coarsest = levels.size() - 1;
+        ForceDirectedPlacementStatic placement = placementOf(levels.get(coarsest), null, null);
+        placement.simulate(COARSEST_ITERATIONS);
+        project(levels, coarsest, placement);
+        if (!proceed.getAsBoolean())
+            return;
+
+        // Interpolate and refine down to the level above the graph itself
+        for (int l = coarsest - 1; l > 0; --l) {
+            Level level = levels.get(l);
+            double[] levelXs = new double[level.count];
+            double[] levelYs = new double[level.count];
+            interpolate(level, placement, levelXs, levelYs);
+
+            placement = placementOf(level, levelXs, levelYs);
+            placement.simulate(refineIterations(l, coarsest));
+            project(levels, l, placement);
+            if (!proceed.getAsBoolean())
+                return;
+        }
+
+        // The graph itself is refined in place, cooled like a warm start and until the usual stopping rule
+        interpolate(levels.get(0), placement, xs, ys);
+        startRefining(FINEST_REFINE_ITERATIONS);
+        super.simulate(proceed);
+    }
+
+    // Fewer iterations on the finer levels, which are larger but start closer to their final shape
+    private static int refineIterations(int level, int coarsest) {
+        return MIN_REFINE_ITERATIONS + (MAX_REFINE_ITERATIONS - MIN_REFINE_ITERATIONS) * level / (coarsest - 1);
+    }
+
+    // Levels from the graph itself to the coarsest graph
+    private List<Level> coarsen() {
+        List<Level> levels = new ArrayList<>();
+        int[] weights = new int[vertexCount];
+        Arrays.fill(weights, 1);
+        Level level = new Level(vertexCount, starts, ends, weights);
+        levels.add(level);
+
+        while (level.count > COARSEST_SIZE) {
+            Level coarser = level.coarsen();
+            if (coarser.count > MIN_SHRINK * level.count)
+                break;
+            levels.add(coarser);
+            level = coarser;
+        }
+        return levels;
+    }
+
+    private static ForceDirectedPlacementStatic placementOf(Level level, double[] xs, double[] ys) {
+        return new ForceDirectedPlacementStatic(level.count, level.starts, level.ends, xs, ys);
+    }
+
+    // Place every vertex of the level next to its parent, spreading the coarser layout so that the
+    // finer level keeps the same density of vertices
+    private static void interpolate(Level level, ForceDirectedPlacementStatic coarser,
+                                    double[] levelXs, double[] levelYs) {
+        double scale = Math.sqrt((double) level.count / coarser.vertexCount);
+        for (int v = 0; v < level.count; ++v) {
+            int parent = level.parents[v];
+            levelXs[v] = coarser.xs[parent] * scale + rand.nextDouble(-JITTER, JITTER);
+            levelYs[v] = coarser.ys[parent] * scale + rand.nextDouble(-JITTER, JITTER);
+        }
+    }
+
+    // Show the layout of a coarser level by moving every vertex of the graph to its ancestor there
+    private void project(List<Level> levels, int depth, ForceDirectedPlacementStatic placement) {
+        for (int v = 0; v < vertexCount; ++v) {
+            int ancestor = v;
+            for (int l = 0; l < depth; ++l)
+                ancestor = levels.get(l).parents[ancestor];
+            xs[v] = placement.xs[ancestor];
+            ys[v] = placement.ys[ancestor];
+        }
+    }
+
+    private static class Level {
+
+        private final int count;
+        private final int[] starts;
+        private final int[] ends;
+        private final int[] weights;  // Number of vertices of the graph collapsed into each vertex
+
+        private int[] parents;  // Vertex of the coarser level each vertex is collapsed into
+
+        Level(int count, int[] starts, int[] ends, int[] weights) {
+            this.count = count;
+            this.starts = starts;
+            this.ends = ends;
+            this.weights = weights;
+        }
+
+        // Collapse a maximal matching, visiting vertices in random order and matching each one
+        // with its lightest unmatched neighbour to keep the coarse vertices balanced
+        Level coarsen() {
+            int[] offsets = new int[count + 1];
+            for (int k = 0; k < starts.length; ++k) {
+                ++offsets[starts[k] + 1];
+                ++offsets[ends[k] + 1];
+            }
+            for (int v = 0; v < count; ++v)
+                offsets[v + 1] += offsets[v];
+            int[] neighbors = new int[offsets[count]];
+            int[] next = Arrays.copyOf(offsets, count);
+            for (int k = 0; k < starts.length; ++k) {
+                neighbors[next[starts[k]]++] = ends[k];
+                neighbors[next[ends[k]]++] = starts[k];
+            }
+
+            int[] order = new int[count];
+            for (int v = 0; v < count; ++v)
+                order[v] = v;
+            for (int v = count - 1; v > 0; --v) {
+                int u = rand.nextInt(v + 1);
+                int temp = order[v];
+                order[v] = order[u];
+                order[u] = temp;
+            }
+
+            parents = new int[count];
+            Arrays.fill(parents, -1);
+            int coarseCount = 0;
+            for (int v : order) {
+                if (parents[v] != -1)
+                    continue;
+                int mate = -1;
+                for (int k = offsets[v]; k < offsets[v + 1]; ++k) {
+                    int u = neighbors[k];
+                    if (parents[u] == -1 && u != v && (mate == -1 || weights[u] < weights[mate]))
+                        mate = u;
+                }
+                parents[v] = coarseCount;
+                if (mate != -1)
+                    parents[mate] = coarseCount;
+                ++coarseCount;
+            }
+
+            int[] coarseWeights = new int[coarseCount];
+            for (int v = 0; v < count; ++v)
+                coarseWeights[parents[v]] += weights[v];
+
+            // Merge the edges between the same coarse vertices and drop those inside one
+            long[] keys = new long[starts.length];
+            int keyCount = 0;
+            for (int k = 0; k < starts.length; ++k) {
+                int a = parents[starts[k]];
+                int b = parents[ends[k]];
+                if (a != b)
+                    keys[keyCount++] = (long) Math.min(a, b) * coarseCount + Math.max(a, b);
+            }
+            Arrays.sort(keys, 0, keyCount);
+            int[] coarseStarts = new int[keyCount];
+            int[] coarseEnds = new int[keyCount];
+            int edgeCount = 0;
+            for (int k = 0; k < keyCount; ++k) {
+                if (k > 0 && keys[k] == keys[k - 1])
+                    continue;
+                coarseStarts[edgeCount] = (int) (keys[k] / coarseCount);
+                coarseEnds[edgeCount] = (int) (keys[k] % coarseCount);
+                ++edgeCount;
+            }
+
+            return new Level(coarseCount,
+                             Arrays.copyOf(coarseStarts, edgeCount),
+                             Arrays.copyOf(coarseEnds, edgeCount),
+                             coarseWeights);
+        }
+    }
+}
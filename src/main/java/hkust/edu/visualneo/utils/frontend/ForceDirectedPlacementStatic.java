@@ -5,8 +5,10 @@ import javafx.geometry.Point2D;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -15,54 +17,82 @@ public class ForceDirectedPlacementStatic {
 
     private static final Random rand = new Random();
 
-    private static final double OPT_DIST = 200.0;  // Optimal distance
-    private static final double INV_OPT_DIST = 1.0 / OPT_DIST;
-    private static final double SQR_OPT_DIST = OPT_DIST * OPT_DIST;
+    protected static final double OPT_DIST = 200.0;  // Optimal distance
+    protected static final double INV_OPT_DIST = 1.0 / OPT_DIST;
+    protected static final double SQR_OPT_DIST = OPT_DIST * OPT_DIST;
 
     private static final double GRAV_COEF = 0.05;  // Gravity coefficient
     private static final double MAX_REP_DIST_COEF = 0.8;
 
+    private static final int GRID_MIN_SPAN = 3;  // Cells per side up to which the grid would still visit every pair
+
     private static final double INIT_TEMP = 20.0;  // Initial temperature
 
     private static final double STOP_AVG_DISP = 80.0;  // Average displacement threshold for stopping simulation
     private static final int MAX_ITERATIONS = 10000;  // Max number of iterations of simulation;
     private static final double MAX_TIME = 10.0;
 
+    private static final int WARM_START_ITERATION = 200;  // A warm start cools as if this many iterations had passed
+    private static final int WARM_ITERATIONS = 100;  // Max number of iterations refining a warm start
+    private static final double WARM_JITTER = 0.25 * OPT_DIST;  // Max offset of new vertices from their neighbours
+
     private final Canvas canvas;
 
-    private final int vertexCount;
-    private final int edgeCount;
+    protected final int vertexCount;
+    protected final int edgeCount;
 
     private final Long[] ids;
-    private final Map<Long, Integer> indices;
 
-    private final Collection<Pair<Integer>> pairs;
+    // Ends of the edges without self-loops, each ordered pair counted once
+    protected final int[] starts;
+    protected final int[] ends;
+
+    protected final double[] xs;
+    protected final double[] ys;
+    protected final double[] dispXs;
+    protected final double[] dispYs;
 
-    private final Point2D[] positions;
-    private final Point2D[] displacements;
+    protected final ForceKernel kernel;
 
-    private final double maxRepDist;  // Maximum distance for applying repulsive force
+    protected final double maxRepDist;  // Maximum distance for applying repulsive force
+
+    private final SpatialGrid grid = new SpatialGrid();  // Cells as large as maxRepDist, rebuilt every iteration
 
     private int itCount = 0;
+    private int maxIterations = MAX_ITERATIONS;
+
+    private boolean warm = false;  // Whether the simulation refines previous positions, which are then kept uncentred
 
     private double temp;  // Current temperature
 
     public ForceDirectedPlacementStatic(Canvas canvas) {
-        this.canvas = canvas;
-        vertexCount = canvas.getVertices().size();
+        this(canvas, canvas.getVertices().stream().map(Vertex::getElementId).toArray(Long[]::new));
+    }
+
+    // Placement of a graph given by its edges alone, starting from the given positions
+    // (or random ones if they are null), as used for the levels of a multilevel layout
+    ForceDirectedPlacementStatic(int vertexCount, int[] starts, int[] ends, double[] xs, double[] ys) {
+        this(null, null, vertexCount, starts, ends, xs, ys);
+    }
+
+    private ForceDirectedPlacementStatic(Canvas canvas, Long[] ids) {
+        this(canvas, ids, edgesOf(canvas, ids));
+    }
 
-        ids = canvas.getVertices().stream().map(Vertex::getElementId).toArray(Long[]::new);
-        indices = IntStream.range(0, vertexCount)
-                           .boxed()
-                           .collect(Collectors.toMap(i -> ids[i], Function.identity()));
+    private ForceDirectedPlacementStatic(Canvas canvas, Long[] ids, int[][] edges) {
+        this(canvas, ids, ids.length, edges[0], edges[1], null, null);
+    }
 
-        // Remove self-loops and only count ordered pairs
-        pairs = canvas.getEdges()
-                      .stream()
-                      .filter(edge -> !edge.isSelfLoop())
-                      .map(edge -> new Pair<>(indices.get(edge.startVertex.getElementId()), indices.get(edge.endVertex.getElementId())))
-                      .collect(Collectors.toSet());
-        edgeCount = pairs.size();
+    private ForceDirectedPlacementStatic(Canvas canvas, Long[] ids, int vertexCount, int[] starts, int[] ends,
+                                         double[] xs, double[] ys) {
+        this.canvas = canvas;
+        this.ids = ids;
+        this.vertexCount = vertexCount;
+        kernel = ForceKernel.of(vertexCount);
+
+        this.starts = starts;
+        this.ends = ends;
+        edgeCount = starts.length;
 
         double scale = Math.sqrt(vertexCount);
         double fullness = edgeCount == 0 ? 1.0 : Math.sqrt(edgeCount * 2.0 / (vertexCount * (vertexCount - 1)));
@@ -72,103 +102,207 @@ public class ForceDirectedPlacementStatic {
         double max = OPT_DIST * scale * 0.5;
         double min = -max;
 
-        positions = new Point2D[vertexCount];
-        displacements = new Point2D[vertexCount];
-        if (vertexCount == 1)
-            positions[0] = Point2D.ZERO;
-        else
-            Arrays.setAll(positions, i -> randomPoint(min, max));
+        this.xs = xs == null ? new double[vertexCount] : xs.clone();
+        this.ys = ys == null ? new double[vertexCount] : ys.clone();
+        dispXs = new double[vertexCount];
+        dispYs = new double[vertexCount];
+        if (xs == null && vertexCount > 1) {
+            for (int i = 0; i < vertexCount; ++i) {
+                this.xs[i] = rand.nextDouble(min, max);
+                this.ys[i] = rand.nextDouble(min, max);
+            }
+        }
+    }
+
+    // Remove self-loops and only count ordered pairs
+    private static int[][] edgesOf(Canvas canvas, Long[] ids) {
+        Map<Long, Integer> indices = IntStream.range(0, ids.length)
+                                              .boxed()
+                                              .collect(Collectors.toMap(i -> ids[i], Function.identity()));
+        Collection<Pair<Integer>> pairs = canvas.getEdges()
+                                                .stream()
+                                                .filter(edge -> !edge.isSelfLoop())
+                                                .map(edge -> new Pair<>(indices.get(edge.startVertex.getElementId()), indices.get(edge.endVertex.getElementId())))
+                                                .collect(Collectors.toSet());
+        return new int[][] {
+                pairs.stream().mapToInt(Pair::head).toArray(),
+                pairs.stream().mapToInt(Pair::tail).toArray()
+        };
+    }
+
+    // Start from the previous positions of the vertices that have one, put the others next to their
+    // placed neighbours, and only refine briefly at a low temperature.
+    // Returns whether any vertex had a previous position, leaving the placement untouched otherwise.
+    public boolean warmStart(Map<Long, Point2D> previous) {
+        boolean[] placed = new boolean[vertexCount];
+        for (int i = 0; i < vertexCount; ++i) {
+            Point2D position = previous.get(ids[i]);
+            if (position == null)
+                continue;
+            xs[i] = position.getX();
+            ys[i] = position.getY();
+            placed[i] = true;
+        }
+        return warmStart(placed);
+    }
+
+    // Warm start where the vertices flagged as placed already hold their previous positions
+    boolean warmStart(boolean[] placed) {
+        double sumX = 0.0;
+        double sumY = 0.0;
+        int placedCount = 0;
+        for (int i = 0; i < vertexCount; ++i) {
+            if (!placed[i])
+                continue;
+            sumX += xs[i];
+            sumY += ys[i];
+            ++placedCount;
+        }
+        if (placedCount == 0)
+            return false;
+
+        // Spread outwards from the placed vertices, one ring of neighbours at a time
+        int[] neighborCounts = new int[vertexCount];
+        double[] neighborXs = new double[vertexCount];
+        double[] neighborYs = new double[vertexCount];
+        boolean progress = placedCount < vertexCount;
+        while (progress) {
+            Arrays.fill(neighborCounts, 0);
+            Arrays.fill(neighborXs, 0.0);
+            Arrays.fill(neighborYs, 0.0);
+            for (int k = 0; k < edgeCount; ++k) {
+                int i = starts[k];
+                int j = ends[k];
+                if (placed[i] && !placed[j]) {
+                    ++neighborCounts[j];
+                    neighborXs[j] += xs[i];
+                    neighborYs[j] += ys[i];
+                }
+                else if (placed[j] && !placed[i]) {
+                    ++neighborCounts[i];
+                    neighborXs[i] += xs[j];
+                    neighborYs[i] += ys[j];
+                }
+            }
+
+            progress = false;
+            for (int i = 0; i < vertexCount; ++i) {
+                if (neighborCounts[i] == 0)
+                    continue;
+                xs[i] = neighborXs[i] / neighborCounts[i] + rand.nextDouble(-WARM_JITTER, WARM_JITTER);
+                ys[i] = neighborYs[i] / neighborCounts[i] + rand.nextDouble(-WARM_JITTER, WARM_JITTER);
+                placed[i] = true;
+                progress = true;
+            }
+        }
+
+        // Vertices unconnected to any placed one are scattered around the placed vertices
+        double max = OPT_DIST * Math.sqrt(vertexCount) * 0.5;
+        double centroidX = sumX / placedCount;
+        double centroidY = sumY / placedCount;
+        for (int i = 0; i < vertexCount; ++i) {
+            if (placed[i])
+                continue;
+            xs[i] = centroidX + rand.nextDouble(-max, max);
+            ys[i] = centroidY + rand.nextDouble(-max, max);
+        }
+
+        startRefining(WARM_ITERATIONS);
+        warm = true;
+        return true;
+    }
+
+    // Refine positions already close to their final shape, starting at the low temperature of a warm start
+    // and stopping at equilibrium or after the given number of iterations
+    void startRefining(int iterations) {
+        itCount = WARM_START_ITERATION;
+        maxIterations = itCount + iterations;
+        cool();
+    }
+
+    public boolean isWarmStarted() {
+        return warm;
     }
 
     public void layout() {
-        Point2D sum = Point2D.ZERO;
-        for (Point2D pos : positions)
-            sum = sum.add(pos);
-        Point2D centroid = sum.multiply(1.0 / vertexCount);
+        getLayoutPositionMap().forEach((id, position) -> canvas.getVertex(id).setPosition(position));
+    }
+
+    // Positions as laid out by layout(), centred unless warm started, and detached from the simulation
+    // so that they may be handed to another thread
+    public Map<Long, Point2D> getLayoutPositionMap() {
+        double centroidX = 0.0;
+        double centroidY = 0.0;
+        if (!warm) {
+            for (int i = 0; i < vertexCount; ++i) {
+                centroidX += xs[i];
+                centroidY += ys[i];
+            }
+            centroidX /= vertexCount;
+            centroidY /= vertexCount;
+        }
 
+        Map<Long, Point2D> positions = new HashMap<>();
         for (int i = 0; i < vertexCount; ++i)
-            canvas.getVertex(ids[i]).setPosition(positions[i].subtract(centroid));
+            positions.put(ids[i], new Point2D(xs[i] - centroidX, ys[i] - centroidY));
+        return positions;
     }
 
     public Map<Long, Point2D> getPositionMap() {
-        return IntStream.range(0, vertexCount).boxed().collect(Collectors.toMap(i -> ids[i], i -> positions[i]));
+        return IntStream.range(0, vertexCount).boxed().collect(Collectors.toMap(i -> ids[i], i -> new Point2D(xs[i], ys[i])));
     }
 
     public void simulate(int iterations) {
         if (vertexCount == 1)
             return;
 
-        long startTime = System.currentTimeMillis();
         if (iterations == 0) {
-            int equilibriumCount = 0;
-            while (equilibriumCount < 5 && itCount < MAX_ITERATIONS &&
-                   (System.currentTimeMillis() - startTime) / 1000.0 < MAX_TIME) {
-                simulate();
-                if (itCount % 100 == 0 && computeAvgDisp() < STOP_AVG_DISP)
-                    ++equilibriumCount;
-            }
+            simulate(() -> true);
         }
         else {
+            long startTime = System.currentTimeMillis();
             for (int i = 0;
-                 i < iterations && itCount < MAX_ITERATIONS &&
+                 i < iterations && itCount < maxIterations &&
                  (System.currentTimeMillis() - startTime) / 1000.0 < MAX_TIME;
                  ++i)
                 simulate();
         }
     }
 
+    // Simulate until equilibrium like simulate(0), asking after every iteration whether to go on
+    public void simulate(BooleanSupplier proceed) {
+        if (vertexCount == 1)
+            return;
+
+        long startTime = System.currentTimeMillis();
+        int equilibriumCount = 0;
+        while (equilibriumCount < 5 && itCount < maxIterations &&
+               (System.currentTimeMillis() - startTime) / 1000.0 < MAX_TIME) {
+            simulate();
+            if (itCount % 100 == 0 && computeAvgDisp() < STOP_AVG_DISP)
+                ++equilibriumCount;
+            if (!proceed.getAsBoolean())
+                return;
+        }
+    }
+
     public void simulate() {
         // Clear all displacements
-        Arrays.fill(displacements, Point2D.ZERO);
+        Arrays.fill(dispXs, 0.0);
+        Arrays.fill(dispYs, 0.0);
 
         // Compute repulsive displacements
-        for (int i = 0; i < vertexCount; ++i) {
-            for (int j = i + 1; j < vertexCount; ++j) {
-                Point2D diff = positions[j].subtract(positions[i]);
-                Point2D disp = repDisp(diff);
-                displacements[i] = displacements[i].subtract(disp);
-                displacements[j] = displacements[j].add(disp);
-            }
-        }
+        computeRepulsion();
 
         // Compute attractive displacements
-        if (edgeCount == 0) {
-            for (int i = 0; i < vertexCount; ++i) {
-                for (int j = i + 1; j < vertexCount; ++j) {
-                    Point2D diff = positions[j].subtract(positions[i]);
-                    Point2D disp = attDisp(diff);
-                    displacements[i] = displacements[i].add(disp);
-                    displacements[j] = displacements[j].subtract(disp);
-                }
-            }
-        }
-        else {
-            for (Pair<Integer> pair : pairs) {
-                int i = pair.head();
-                int j = pair.tail();
-
-                Point2D diff = positions[j].subtract(positions[i]);
-                Point2D disp = attDisp(diff);
-                displacements[i] = displacements[i].add(disp);
-                displacements[j] = displacements[j].subtract(disp);
-            }
-        }
-        for (Pair<Integer> pair : pairs) {
-            int i = pair.head();
-            int j = pair.tail();
-
-            Point2D diff = positions[j].subtract(positions[i]);
-            Point2D disp = attDisp(diff);
-            displacements[i] = displacements[i].add(disp);
-            displacements[j] = displacements[j].subtract(disp);
-        }
+        if (edgeCount == 0)
+            computeMutualAttraction();
+        else
+            kernel.attract(xs, ys, dispXs, dispYs, starts, ends, INV_OPT_DIST);
+        kernel.attract(xs, ys, dispXs, dispYs, starts, ends, INV_OPT_DIST);
 
         // Apply displacements
-        for (int i = 0; i < vertexCount; ++i) {
-            Point2D disp = displacements[i];
-            if (disp != Point2D.ZERO)
-                positions[i] = positions[i].add(disp.multiply(Math.min(1.0, temp / disp.magnitude())));
-        }
+        kernel.displace(xs, ys, dispXs, dispYs, vertexCount, temp);
 
         // Cooling
         cool();
@@ -177,22 +311,20 @@ public class ForceDirectedPlacementStatic {
         ++itCount;
     }
 
-    // Attractive and repulsive displacements between u and v
-    // diff = v - u
-    // The displacements have the same direction as diff
-    private Point2D attDisp(Point2D diff) {
-        double dist = diff.magnitude();
-        return diff.multiply(INV_OPT_DIST * dist);
-    }
-    private Point2D repDisp(Point2D diff) {
-        double dist = diff.magnitude();
-        if (dist > maxRepDist)
-            return Point2D.ZERO;
-        return diff.multiply(SQR_OPT_DIST / (dist * dist));
+    // Repulsion between all pairs of vertices closer than maxRepDist, only visiting the pairs in neighbouring
+    // cells of a grid, unless the cutoff spans the whole layout and every pair would be visited anyway
+    protected void computeRepulsion() {
+        grid.build(xs, ys, vertexCount, maxRepDist);
+        if (grid.cols() > GRID_MIN_SPAN || grid.rows() > GRID_MIN_SPAN)
+            kernel.repulse(grid, xs, ys, dispXs, dispYs, SQR_OPT_DIST, maxRepDist);
+        else
+            kernel.repulse(xs, ys, dispXs, dispYs, vertexCount, SQR_OPT_DIST, maxRepDist);
     }
 
-    private Point2D gravity(Point2D pos) {
-        return Point2D.ZERO.subtract(pos).multiply(GRAV_COEF);
+    // Attraction between all pairs of vertices, used when there are no edges to hold the graph together
+    // Called after computeRepulsion in the same iteration
+    protected void computeMutualAttraction() {
+        kernel.attractAll(xs, ys, dispXs, dispYs, vertexCount, INV_OPT_DIST);
     }
 
     private void cool() {
@@ -201,13 +333,8 @@ public class ForceDirectedPlacementStatic {
 
     private double computeAvgDisp() {
         double sum = 0.0;
-        for (Point2D disp : displacements) {
-            sum += disp.magnitude();
-        }
+        for (int i = 0; i < vertexCount; ++i)
+            sum += Math.sqrt(dispXs[i] * dispXs[i] + dispYs[i] * dispYs[i]);
         return sum / vertexCount;
     }
-
-    private static Point2D randomPoint(double min, double max) {
-        return new Point2D(rand.nextDouble(min, max), rand.nextDouble(min, max));
-    }
 }
@@ -0,0 +1,232 @@
+package hkust.edu.visualneo.utils.frontend;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+
+// Force computations of the placements over positions and displacements kept in flat x/y arrays.
+// Nothing is allocated, so an iteration costs arithmetic only.
+// For a pair (u, v), diff = v - u, and the displacement of v is the negation of that of u.
+public class ForceKernel {
+
+    private static final int PARALLEL_THRESHOLD = 1000;  // Vertex count above which the passes are split across cores
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNEL = "hkust.edu.visualneo.utils.frontend.VectorForceKernel";
+
+    // Null unless the vector kernel has been compiled, by the "vector" profile, and its module added at launch
+    private static final MethodHandle vectorKernelFactory = findVectorKernelFactory();
+
+    // Whether kernels created from now on use the Vector API when it is available,
+    // off unless opted in with -Dvisualneo.vectorKernel=true
+    private static volatile boolean vectorized = Boolean.getBoolean("visualneo.vectorKernel");
+
+    @FunctionalInterface
+    public interface RangeAction {
+        void run(int start, int end);
+    }
+
+    // The kernel suited to a graph of the given size
+    public static ForceKernel of(int vertexCount) {
+        ForceKernel kernel = isVectorized() ? createVectorKernel() : new ForceKernel();
+        if (vertexCount > PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1)
+            return new ParallelForceKernel(ForkJoinPool.commonPool(), kernel);
+        return kernel;
+    }
+
+    public static boolean isVectorAvailable() {
+        return vectorKernelFactory != null;
+    }
+
+    public static boolean isVectorized() {
+        return vectorized && isVectorAvailable();
+    }
+
+    public static void setVectorized(boolean vectorized) {
+        ForceKernel.vectorized = vectorized;
+    }
+
+    private static MethodHandle findVectorKernelFactory() {
+        Optional<Module> vectorModule = ModuleLayer.boot().findModule(VECTOR_MODULE);
+        if (vectorModule.isEmpty())
+            return null;
+        ForceKernel.class.getModule().addReads(vectorModule.get());  // Not required by module-info
+        try {
+            return MethodHandles.lookup().findStatic(Class.forName(VECTOR_KERNEL),
+                                                     "create",
+                                                     MethodType.methodType(ForceKernel.class));
+        }
+        catch (ReflectiveOperationException e) {  // Built without the "vector" profile
+            return null;
+        }
+    }
+
+    private static ForceKernel createVectorKernel() {
+        try {
+            return (ForceKernel) vectorKernelFactory.invokeExact();
+        }
+        catch (Throwable e) {
+            System.out.println("Error when creating the vectorized force kernel");
+            e.printStackTrace();
+            return new ForceKernel();
+        }
+    }
+
+    // Run the action over [0, count), possibly as several disjoint ranges at the same time
+    public void forEachRange(int count, RangeAction action) {
+        action.run(0, count);
+    }
+
+    // Repulsion strength / dist^2 along diff between all pairs closer than cutoff
+    public void repulse(double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                        int count, double strength, double cutoff) {
+        double sqrCutoff = cutoff * cutoff;
+        for (int i = 0; i < count; ++i)
+            repulseRow(i, i + 1, count, xs, ys, dispXs, dispYs, strength, sqrCutoff);
+    }
+
+    // Repulsion between i and every j in [from, to)
+    protected void repulseRow(int i, int from, int to, double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                              double strength, double sqrCutoff) {
+        double x = xs[i];
+        double y = ys[i];
+        double dispX = 0.0;
+        double dispY = 0.0;
+        for (int j = from; j < to; ++j) {
+            double dx = xs[j] - x;
+            double dy = ys[j] - y;
+            double sqrDist = dx * dx + dy * dy;
+            if (sqrDist > sqrCutoff)
+                continue;
+            double factor = strength / sqrDist;
+            dispX -= dx * factor;
+            dispY -= dy * factor;
+            dispXs[j] += dx * factor;
+            dispYs[j] += dy * factor;
+        }
+        dispXs[i] += dispX;
+        dispYs[i] += dispY;
+    }
+
+    // Same as repulse, visiting only the pairs in the same or adjacent cells of a grid built with the cutoff
+    public void repulse(SpatialGrid grid, double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                        double strength, double cutoff) {
+        double sqrCutoff = cutoff * cutoff;
+        int cols = grid.cols();
+        int rows = grid.rows();
+        int[] cellStarts = grid.cellStarts();
+        int[] order = grid.order();
+
+        for (int row = 0; row < rows; ++row) {
+            for (int col = 0; col < cols; ++col) {
+                int cell = row * cols + col;
+                int end = cellStarts[cell + 1];
+                for (int a = cellStarts[cell]; a < end; ++a) {
+                    int i = order[a];
+                    // Later points of the same cell, then the four adjacent cells ahead of this one
+                    repulse(i, order, a + 1, end, xs, ys, dispXs, dispYs, strength, sqrCutoff);
+                    if (col + 1 < cols)
+                        repulse(i, order, cellStarts[cell + 1], cellStarts[cell + 2], xs, ys, dispXs, dispYs, strength, sqrCutoff);
+                    if (row + 1 < rows) {
+                        int below = cell + cols;
+                        int from = cellStarts[col > 0 ? below - 1 : below];
+                        int to = cellStarts[(col + 1 < cols ? below + 1 : below) + 1];
+                        repulse(i, order, from, to, xs, ys, dispXs, dispYs, strength, sqrCutoff);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void repulse(int i, int[] order, int from, int to,
+                                double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                                double strength, double sqrCutoff) {
+        double x = xs[i];
+        double y = ys[i];
+        double dispX = 0.0;
+        double dispY = 0.0;
+        for (int b = from; b < to; ++b) {
+            int j = order[b];
+            double dx = xs[j] - x;
+            double dy = ys[j] - y;
+            double sqrDist = dx * dx + dy * dy;
+            if (sqrDist > sqrCutoff)
+                continue;
+            double factor = strength / sqrDist;
+            dispX -= dx * factor;
+            dispY -= dy * factor;
+            dispXs[j] += dx * factor;
+            dispYs[j] += dy * factor;
+        }
+        dispXs[i] += dispX;
+        dispYs[i] += dispY;
+    }
+
+    // Attraction strength * dist along diff between all pairs
+    public void attractAll(double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                           int count, double strength) {
+        for (int i = 0; i < count; ++i)
+            attractRow(i, i + 1, count, xs, ys, dispXs, dispYs, strength);
+    }
+
+    // Attraction between i and every j in [from, to)
+    protected void attractRow(int i, int from, int to, double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                              double strength) {
+        double x = xs[i];
+        double y = ys[i];
+        double dispX = 0.0;
+        double dispY = 0.0;
+        for (int j = from; j < to; ++j) {
+            double dx = xs[j] - x;
+            double dy = ys[j] - y;
+            double factor = strength * Math.sqrt(dx * dx + dy * dy);
+            dispX += dx * factor;
+            dispY += dy * factor;
+            dispXs[j] -= dx * factor;
+            dispYs[j] -= dy * factor;
+        }
+        dispXs[i] += dispX;
+        dispYs[i] += dispY;
+    }
+
+    // Attraction strength * dist along diff between the ends of each edge
+    public void attract(double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                        int[] starts, int[] ends, double strength) {
+        for (int k = 0; k < starts.length; ++k) {
+            int i = starts[k];
+            int j = ends[k];
+            double dx = xs[j] - xs[i];
+            double dy = ys[j] - ys[i];
+            double factor = strength * Math.sqrt(dx * dx + dy * dy);
+            dispXs[i] += dx * factor;
+            dispYs[i] += dy * factor;
+            dispXs[j] -= dx * factor;
+            dispYs[j] -= dy * factor;
+        }
+    }
+
+    // Pull towards the origin proportional to the distance from it
+    public void gravitate(double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                          int count, double strength) {
+        for (int i = 0; i < count; ++i) {
+            dispXs[i] -= xs[i] * strength;
+            dispYs[i] -= ys[i] * strength;
+        }
+    }
+
+    // Move every vertex along its displacement, by at most temp
+    public void displace(double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                         int count, double temp) {
+        for (int i = 0; i < count; ++i) {
+            double dispX = dispXs[i];
+            double dispY = dispYs[i];
+            if (dispX == 0.0 && dispY == 0.0)
+                continue;
+            double scale = Math.min(1.0, temp / Math.sqrt(dispX * dispX + dispY * dispY));
+            xs[i] += dispX * scale;
+            ys[i] += dispY * scale;
+        }
+    }
+}
@@ -14,7 +14,6 @@ import javafx.scene.shape.Shape;
 import javafx.scene.text.FontSmoothingType;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextBoundsType;
-import javafx.scene.transform.Scale;
 import org.neo4j.driver.Value;
 
 import java.util.ArrayList;
@@ -28,11 +27,14 @@ public abstract class GraphElement extends Group implements Comparable<GraphElem
     protected static final Color HIGHLIGHT_COLOR = Color.web("#001966", 0.2);
 
     private static long currentId = 0;
+    private static long currentRevision = 0;
 
     protected final Canvas canvas;
 
     private boolean valid = true;
     private Collection<InvalidationListener> listeners = new ArrayList<>();
+    // Renewed whenever the element changes in a way that matters to the query, unique among all elements
+    private long revision = ++currentRevision;
 
     private final long id;
 
@@ -47,6 +49,9 @@ public abstract class GraphElement extends Group implements Comparable<GraphElem
     // Position of the element
     private final ObjectProperty<Point2D> position =
             new PositionProperty(this, "position");
+    // Whether the camera is close enough to show labels and arrowheads
+    private final BooleanProperty detailed =
+            new SimpleBooleanProperty(this, "detailed", true);
     protected Shape shape;
     protected Shape highlightShape;
     // Label shown on the GraphElement
@@ -112,6 +117,14 @@ public abstract class GraphElement extends Group implements Comparable<GraphElem
         highlightProperty().set(highlight);
     }
 
+    public BooleanProperty detailedProperty() {
+        return detailed;
+    }
+
+    public boolean isDetailed() {
+        return detailedProperty().get();
+    }
+
     public ObjectProperty<Point2D> positionProperty() {
         return position;
     }
@@ -130,6 +143,8 @@ public abstract class GraphElement extends Group implements Comparable<GraphElem
 
     public long getElementId() { return id; }
 
+    public long getRevision() { return revision; }
+
     public static long getCurrentId() { return currentId; }
 
     public void setPosition(Point2D p) {
@@ -150,21 +165,16 @@ public abstract class GraphElement extends Group implements Comparable<GraphElem
 
 
     protected void initializeGraphics() {
-        layoutXProperty().bind(Bindings.createDoubleBinding(
-                () -> camera().worldToScreenX(getX()),
-                positionProperty(), camera().positionProperty(), camera().ratioProperty(), canvas.widthProperty()));
-        layoutYProperty().bind(Bindings.createDoubleBinding(
-                () -> camera().worldToScreenY(getY()),
-                positionProperty(), camera().positionProperty(), camera().ratioProperty(), canvas.heightProperty()));
-
-        Scale scale = new Scale();
-        scale.xProperty().bind(camera().ratioProperty());
-        scale.yProperty().bind(camera().ratioProperty());
-        getTransforms().add(scale);
+        // In world coordinates, the camera being applied by the element layer of the canvas
+        layoutXProperty().bind(Bindings.createDoubleBinding(this::getX, positionProperty()));
+        layoutYProperty().bind(Bindings.createDoubleBinding(this::getY, positionProperty()));
+
+        detailedProperty().bind(camera().detailedProperty());
 
         text = new Text();
         text.setBoundsType(TextBoundsType.VISUAL);
         text.setFontSmoothingType(FontSmoothingType.LCD);
+        text.visibleProperty().bind(detailedProperty());
         getChildren().add(text);
 
         text.textProperty().bind(labelProperty());
@@ -220,6 +230,7 @@ public abstract class GraphElement extends Group implements Comparable<GraphElem
     }
 
     protected void markInvalid() {
+        revision = ++currentRevision;
         if (valid) {
             valid = false;
             invalidated();
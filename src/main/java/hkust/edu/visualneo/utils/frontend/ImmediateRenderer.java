@@ -0,0 +1,421 @@
+package hkust.edu.visualneo.utils.frontend;
+
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.text.TextAlignment;
+
+import java.util.Collection;
+
+import static hkust.edu.visualneo.utils.frontend.Vertex.HIGHLIGHT_RADIUS;
+import static hkust.edu.visualneo.utils.frontend.Vertex.VERTEX_RADIUS;
+
+// Draws all elements of a read-only canvas in one pass onto a single javafx.scene.canvas.Canvas,
+// in place of a scene-graph node per element. The elements are then kept as models only, with positions,
+// labels and highlights but no graphics, and the one under the cursor is found through a grid over the
+// vertex positions and another over the boxes around the edges.
+public class ImmediateRenderer {
+
+    private static final double LOOP_DIST = Edge.LINE_LENGTH / Math.cos(Edge.LOOP_SPAN_ANGLE * 0.5);  // From a vertex to the centre of its self-loops
+    private static final double LOOP_RADIUS = Edge.LINE_LENGTH * Math.tan(Edge.LOOP_SPAN_ANGLE * 0.5);
+    private static final double PICK_DIST = Edge.HIGHLIGHT_STROKE_WIDTH * 0.5;  // Distance from an edge within which it is clicked
+    private static final int CURVE_SEGMENTS = 8;  // Straight pieces a bent edge is hit-tested against
+
+    private final Canvas canvas;
+    private final javafx.scene.canvas.Canvas surface = new javafx.scene.canvas.Canvas();
+
+    // Vertex positions at the last draw, indexed for picking
+    private final SpatialGrid grid = new SpatialGrid();
+    private Vertex[] indexed = new Vertex[0];
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+
+    // Boxes around the edges at the last draw, within which a click may pick them, indexed the same way
+    private final SpatialGrid edgeGrid = new SpatialGrid();
+    private Edge[] indexedEdges = new Edge[0];
+    private double[] minXs = new double[0];
+    private double[] minYs = new double[0];
+    private double[] maxXs = new double[0];
+    private double[] maxYs = new double[0];
+
+    private boolean indexValid = false;
+
+    // Control point of the last edge passed to bend
+    private double controlX;
+    private double controlY;
+
+    public ImmediateRenderer(Canvas canvas) {
+        this.canvas = canvas;
+
+        // Unmanaged so that the size of the surface does not feed back into that of the canvas
+        surface.setManaged(false);
+        surface.widthProperty().bind(canvas.widthProperty());
+        surface.heightProperty().bind(canvas.heightProperty());
+    }
+
+    public javafx.scene.canvas.Canvas getSurface() {
+        return surface;
+    }
+
+    public void draw() {
+        indexValid = false;
+
+        GraphicsContext gc = surface.getGraphicsContext2D();
+        gc.setTransform(1.0, 0.0, 0.0, 1.0, 0.0, 0.0);
+        gc.clearRect(0.0, 0.0, surface.getWidth(), surface.getHeight());
+
+        // Draw in world coordinates from here on
+        OrthogonalCamera camera = canvas.camera;
+        double ratio = camera.getRatio();
+        gc.setTransform(ratio, 0.0, 0.0, ratio, camera.worldToScreenX(0.0), camera.worldToScreenY(0.0));
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.CENTER);
+
+        Bounds area = canvas.cullingArea();
+        boolean detailed = camera.isDetailed();
+
+        for (Edge edge : canvas.getEdges())
+            if (!Canvas.isOutside(edge, area))
+                drawEdge(gc, edge, detailed);
+
+        for (Vertex vertex : canvas.getVertices())
+            if (!Canvas.isOutside(vertex, area))
+                drawVertex(gc, vertex, detailed);
+    }
+
+    private void drawVertex(GraphicsContext gc, Vertex vertex, boolean detailed) {
+        double x = vertex.getX();
+        double y = vertex.getY();
+
+        if (vertex.isHighlighted()) {
+            gc.setFill(GraphElement.HIGHLIGHT_COLOR);
+            gc.fillOval(x - HIGHLIGHT_RADIUS, y - HIGHLIGHT_RADIUS, 2.0 * HIGHLIGHT_RADIUS, 2.0 * HIGHLIGHT_RADIUS);
+        }
+
+        gc.setFill(canvas.getColor(vertex.getLabel()));
+        gc.fillOval(x - VERTEX_RADIUS, y - VERTEX_RADIUS, 2.0 * VERTEX_RADIUS, 2.0 * VERTEX_RADIUS);
+        gc.setStroke(Vertex.STROKE_COLOR);
+        gc.setLineWidth(Vertex.CIRCLE_STROKE_WIDTH);
+        gc.strokeOval(x - VERTEX_RADIUS, y - VERTEX_RADIUS, 2.0 * VERTEX_RADIUS, 2.0 * VERTEX_RADIUS);
+
+        if (detailed && vertex.hasLabel()) {
+            gc.setFont(Vertex.TEXT_FONT);
+            gc.setFill(Vertex.TEXT_COLOR);
+            gc.fillText(vertex.getLabel(), x, y);
+            gc.setLineWidth(Vertex.TEXT_STROKE_WIDTH);
+            gc.strokeText(vertex.getLabel(), x, y);
+        }
+    }
+
+    private void drawEdge(GraphicsContext gc, Edge edge, boolean detailed) {
+        if (edge.isSelfLoop()) {
+            drawSelfLoop(gc, edge, detailed);
+            return;
+        }
+
+        double x1 = edge.startVertex.getX();
+        double y1 = edge.startVertex.getY();
+        double x2 = edge.endVertex.getX();
+        double y2 = edge.endVertex.getY();
+        bend(edge);
+
+        // Leave the vertices out, heading for the control point
+        double d1 = Math.hypot(controlX - x1, controlY - y1);
+        double d2 = Math.hypot(controlX - x2, controlY - y2);
+        if (d1 <= VERTEX_RADIUS || d2 <= VERTEX_RADIUS)  // Overlapping vertices
+            return;
+        double sx = x1 + (controlX - x1) * VERTEX_RADIUS / d1;
+        double sy = y1 + (controlY - y1) * VERTEX_RADIUS / d1;
+        double ex = x2 + (controlX - x2) * VERTEX_RADIUS / d2;
+        double ey = y2 + (controlY - y2) * VERTEX_RADIUS / d2;
+
+        gc.beginPath();
+        gc.moveTo(sx, sy);
+        gc.quadraticCurveTo(controlX, controlY, ex, ey);
+        if (edge.isHighlighted()) {
+            gc.setStroke(GraphElement.HIGHLIGHT_COLOR);
+            gc.setLineWidth(Edge.HIGHLIGHT_STROKE_WIDTH);
+            gc.stroke();
+        }
+        gc.setStroke(Edge.LINE_COLOR);
+        gc.setLineWidth(Edge.LINE_STROKE_WIDTH);
+        gc.stroke();
+
+        if (!detailed)
+            return;
+
+        if (edge.isDirected()) {
+            double angle = Math.atan2(ey - controlY, ex - controlX);
+            double a1 = angle + Edge.ARROWHEAD_ANGLE * 0.5;
+            double a2 = angle - Edge.ARROWHEAD_ANGLE * 0.5;
+            gc.strokeLine(ex, ey, ex - Edge.ARROWHEAD_LENGTH * Math.cos(a1), ey - Edge.ARROWHEAD_LENGTH * Math.sin(a1));
+            gc.strokeLine(ex, ey, ex - Edge.ARROWHEAD_LENGTH * Math.cos(a2), ey - Edge.ARROWHEAD_LENGTH * Math.sin(a2));
+        }
+
+        if (edge.hasLabel()) {
+            gc.setFont(Edge.TEXT_FONT);
+            gc.setFill(Color.BLACK);
+            gc.fillText(edge.getLabel(),
+                        0.25 * (x1 + x2) + 0.5 * controlX,
+                        0.25 * (y1 + y2) + 0.5 * controlY);
+        }
+    }
+
+    private void drawSelfLoop(GraphicsContext gc, Edge edge, boolean detailed) {
+        double x = edge.startVertex.getX();
+        double y = edge.startVertex.getY();
+        double angle = loopAngle(edge);
+        double cx = x + LOOP_DIST * Math.cos(angle);
+        double cy = y + LOOP_DIST * Math.sin(angle);
+
+        if (edge.isHighlighted()) {
+            gc.setStroke(GraphElement.HIGHLIGHT_COLOR);
+            gc.setLineWidth(Edge.HIGHLIGHT_STROKE_WIDTH);
+            gc.strokeOval(cx - LOOP_RADIUS, cy - LOOP_RADIUS, 2.0 * LOOP_RADIUS, 2.0 * LOOP_RADIUS);
+        }
+        gc.setStroke(Edge.LINE_COLOR);
+        gc.setLineWidth(Edge.LINE_STROKE_WIDTH);
+        gc.strokeOval(cx - LOOP_RADIUS, cy - LOOP_RADIUS, 2.0 * LOOP_RADIUS, 2.0 * LOOP_RADIUS);
+        for (double side = -1.0; side <= 1.0; side += 2.0) {
+            double a = angle + side * Edge.LOOP_SPAN_ANGLE * 0.5;
+            double cos = Math.cos(a);
+            double sin = Math.sin(a);
+            gc.strokeLine(x + VERTEX_RADIUS * cos, y + VERTEX_RADIUS * sin,
+                          x + Edge.LINE_LENGTH * cos, y + Edge.LINE_LENGTH * sin);
+        }
+
+        if (detailed && edge.hasLabel()) {
+            double dist = LOOP_DIST + LOOP_RADIUS + Edge.TEXT_GAP;
+            gc.setFont(Edge.TEXT_FONT);
+            gc.setFill(Color.BLACK);
+            gc.fillText(edge.getLabel(), x + dist * Math.cos(angle), y + dist * Math.sin(angle));
+        }
+    }
+
+    // Set the control point of the quadratic curve drawn for an edge, bending parallel edges apart
+    // as their retained arcs do
+    private void bend(Edge edge) {
+        double px = edge.primaryVertex.getX();
+        double py = edge.primaryVertex.getY();
+        double qx = edge.secondaryVertex.getX();
+        double qy = edge.secondaryVertex.getY();
+        controlX = (px + qx) * 0.5;
+        controlY = (py + qy) * 0.5;
+
+        int num = edge.primaryVertex.getNumEdgesBetween(edge.secondaryVertex);
+        double offsetAngle = (edge.getIdx() - (num - 1) * 0.5) * Edge.GAP_ANGLE;
+        if (offsetAngle == 0.0)
+            return;
+        // Tangents of a quadratic curve meet at its control point
+        double offset = 0.5 * Math.tan(offsetAngle);
+        controlX -= (qy - py) * offset;
+        controlY += (qx - px) * offset;
+    }
+
+    private static double loopAngle(Edge edge) {
+        Vertex vertex = edge.startVertex;
+        return vertex.getSelfLoopAngle() +
+               (2 * edge.getIdx() - vertex.getNumEdgesBetween(vertex) + 1) *
+               (Edge.LOOP_GAP_ANGLE + Edge.LOOP_SPAN_ANGLE) * 0.5;
+    }
+
+    // The element drawn at a point of the canvas, vertices first, or null if there is none
+    public GraphElement pick(double screenX, double screenY) {
+        double x = canvas.camera.screenToWorldX(screenX);
+        double y = canvas.camera.screenToWorldY(screenY);
+        if (!indexValid)
+            index();
+        Vertex vertex = pickVertex(x, y);
+        return vertex != null ? vertex : pickEdge(x, y);
+    }
+
+    private Vertex pickVertex(double x, double y) {
+        if (indexed.length == 0)
+            return null;
+
+        // Cells are at least VERTEX_RADIUS wide, so a vertex under the point is in a neighbouring cell
+        int cols = grid.cols();
+        int rows = grid.rows();
+        int col = grid.colOf(x);
+        int row = grid.rowOf(y);
+        int[] cellStarts = grid.cellStarts();
+        int[] order = grid.order();
+
+        Vertex closest = null;
+        double closestSqrDist = VERTEX_RADIUS * VERTEX_RADIUS;
+        for (int r = Math.max(row - 1, 0); r <= Math.min(row + 1, rows - 1); ++r) {
+            for (int c = Math.max(col - 1, 0); c <= Math.min(col + 1, cols - 1); ++c) {
+                int cell = r * cols + c;
+                for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; ++k) {
+                    int i = order[k];
+                    double dx = xs[i] - x;
+                    double dy = ys[i] - y;
+                    double sqrDist = dx * dx + dy * dy;
+                    if (sqrDist <= closestSqrDist) {
+                        closest = indexed[i];
+                        closestSqrDist = sqrDist;
+                    }
+                }
+            }
+        }
+        return closest;
+    }
+
+    // Only the edges whose boxes overlap the cell of the point can be within reach of it
+    private Edge pickEdge(double x, double y) {
+        if (indexedEdges.length == 0)
+            return null;
+
+        int cell = edgeGrid.rowOf(y) * edgeGrid.cols() + edgeGrid.colOf(x);
+        int[] cellStarts = edgeGrid.cellStarts();
+        int[] order = edgeGrid.order();
+
+        Edge closest = null;
+        double closestDist = PICK_DIST;
+        for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; ++k) {
+            int i = order[k];
+            if (x < minXs[i] || x > maxXs[i] || y < minYs[i] || y > maxYs[i])
+                continue;
+            Edge edge = indexedEdges[i];
+            double dist = edge.isSelfLoop() ? loopDistance(edge, x, y) : curveDistance(edge, x, y);
+            if (dist <= closestDist) {
+                closest = edge;
+                closestDist = dist;
+            }
+        }
+        return closest;
+    }
+
+    private static double loopDistance(Edge edge, double x, double y) {
+        double angle = loopAngle(edge);
+        double cx = edge.startVertex.getX() + LOOP_DIST * Math.cos(angle);
+        double cy = edge.startVertex.getY() + LOOP_DIST * Math.sin(angle);
+        return Math.abs(Math.hypot(x - cx, y - cy) - LOOP_RADIUS);
+    }
+
+    // Distance from a point to the curve of an edge
+    private double curveDistance(Edge edge, double x, double y) {
+        double x1 = edge.startVertex.getX();
+        double y1 = edge.startVertex.getY();
+        double x2 = edge.endVertex.getX();
+        double y2 = edge.endVertex.getY();
+
+        bend(edge);
+        double dist = Double.POSITIVE_INFINITY;
+        double ax = x1;
+        double ay = y1;
+        for (int s = 1; s <= CURVE_SEGMENTS; ++s) {
+            double t = (double) s / CURVE_SEGMENTS;
+            double u = 1.0 - t;
+            double bx = u * u * x1 + 2.0 * u * t * controlX + t * t * x2;
+            double by = u * u * y1 + 2.0 * u * t * controlY + t * t * y2;
+            dist = Math.min(dist, segmentDistance(x, y, ax, ay, bx, by));
+            ax = bx;
+            ay = by;
+        }
+        return dist;
+    }
+
+    private static double segmentDistance(double x, double y, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double sqrLength = dx * dx + dy * dy;
+        double t = sqrLength == 0.0 ? 0.0 : Math.max(0.0, Math.min(1.0, ((x - ax) * dx + (y - ay) * dy) / sqrLength));
+        return Math.hypot(x - (ax + t * dx), y - (ay + t * dy));
+    }
+
+    private void index() {
+        indexValid = true;
+        Collection<Vertex> vertices = canvas.getVertices();
+        int count = vertices.size();
+        if (indexed.length != count) {
+            indexed = new Vertex[count];
+            xs = new double[count];
+            ys = new double[count];
+        }
+        int i = 0;
+        for (Vertex vertex : vertices) {
+            indexed[i] = vertex;
+            xs[i] = vertex.getX();
+            ys[i] = vertex.getY();
+            ++i;
+        }
+        grid.build(xs, ys, count, VERTEX_RADIUS);
+
+        Collection<Edge> edges = canvas.getEdges();
+        int edgeCount = edges.size();
+        if (indexedEdges.length != edgeCount) {
+            indexedEdges = new Edge[edgeCount];
+            minXs = new double[edgeCount];
+            minYs = new double[edgeCount];
+            maxXs = new double[edgeCount];
+            maxYs = new double[edgeCount];
+        }
+        double extentSum = 0.0;
+        i = 0;
+        for (Edge edge : edges) {
+            indexedEdges[i] = edge;
+            bound(edge, i);
+            extentSum += Math.max(maxXs[i] - minXs[i], maxYs[i] - minYs[i]);
+            ++i;
+        }
+        // Cells as large as a typical box keep most edges in a few cells
+        edgeGrid.build(minXs, minYs, maxXs, maxYs, edgeCount, edgeCount == 0 ? 0.0 : extentSum / edgeCount);
+    }
+
+    // Box around everything of an edge within PICK_DIST, a curve lying within the triangle of its ends
+    // and its control point
+    private void bound(Edge edge, int i) {
+        if (edge.isSelfLoop()) {
+            double angle = loopAngle(edge);
+            double cx = edge.startVertex.getX() + LOOP_DIST * Math.cos(angle);
+            double cy = edge.startVertex.getY() + LOOP_DIST * Math.sin(angle);
+            double reach = LOOP_RADIUS + PICK_DIST;
+            minXs[i] = cx - reach;
+            minYs[i] = cy - reach;
+            maxXs[i] = cx + reach;
+            maxYs[i] = cy + reach;
+            return;
+        }
+
+        double x1 = edge.startVertex.getX();
+        double y1 = edge.startVertex.getY();
+        double x2 = edge.endVertex.getX();
+        double y2 = edge.endVertex.getY();
+        bend(edge);
+        minXs[i] = Math.min(Math.min(x1, x2), controlX) - PICK_DIST;
+        minYs[i] = Math.min(Math.min(y1, y2), controlY) - PICK_DIST;
+        maxXs[i] = Math.max(Math.max(x1, x2), controlX) + PICK_DIST;
+        maxYs[i] = Math.max(Math.max(y1, y2), controlY) + PICK_DIST;
+    }
+
+    // Bounds of the elements in world coordinates, including highlights and self-loops
+    public Bounds computeBounds(Collection<GraphElement> elements) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+
+        for (GraphElement element : elements) {
+            if (element instanceof Vertex vertex) {
+                minX = Math.min(minX, vertex.getX() - HIGHLIGHT_RADIUS);
+                minY = Math.min(minY, vertex.getY() - HIGHLIGHT_RADIUS);
+                maxX = Math.max(maxX, vertex.getX() + HIGHLIGHT_RADIUS);
+                maxY = Math.max(maxY, vertex.getY() + HIGHLIGHT_RADIUS);
+            }
+            else if (element instanceof Edge edge) {
+                double margin = edge.isSelfLoop() ? LOOP_DIST + LOOP_RADIUS : HIGHLIGHT_RADIUS;
+                for (Vertex vertex : new Vertex[]{edge.startVertex, edge.endVertex}) {
+                    minX = Math.min(minX, vertex.getX() - margin);
+                    minY = Math.min(minY, vertex.getY() - margin);
+                    maxX = Math.max(maxX, vertex.getX() + margin);
+                    maxY = Math.max(maxY, vertex.getY() + margin);
+                }
+            }
+        }
+
+        return new BoundingBox(minX, minY, maxX - minX, maxY - minY);
+    }
+}
@@ -0,0 +1,132 @@
+package hkust.edu.visualneo.utils.frontend;
+
+import javafx.application.Platform;
+import javafx.geometry.Point2D;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs the placement of a canvas on a background thread and streams intermediate positions to it,
+// at most FRAME_RATE times per second, so that the application thread stays free while the layout settles.
+// Starting a layout cancels the one still running on the same canvas.
+public class LayoutService {
+
+    private static final int SYNCHRONOUS_THRESHOLD = 64;  // Graphs up to this many vertices are laid out at once
+    private static final double FRAME_RATE = 30.0;
+    private static final long FRAME_INTERVAL = (long) (1e9 / FRAME_RATE);
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "layout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Canvas canvas;
+
+    private Job current;  // Only accessed on the application thread
+
+    public LayoutService(Canvas canvas) {
+        this.canvas = canvas;
+    }
+
+    // Must be called on the application thread, after the placement has been created from the canvas.
+    // onLayout is run on the application thread after the final positions have been applied,
+    // and for a background layout also after the initial ones.
+    public void run(ForceDirectedPlacementStatic placement, Runnable onLayout) {
+        cancel();
+
+        if (canvas.getVertices().size() <= SYNCHRONOUS_THRESHOLD) {
+            placement.simulate(0);
+            placement.layout();
+            onLayout.run();
+            return;
+        }
+
+        // Show the initial positions right away, then refine them in the background
+        placement.layout();
+        onLayout.run();
+        Job job = new Job(placement, onLayout);
+        current = job;
+        job.future = executor.submit(job);
+    }
+
+    public void cancel() {
+        if (current == null)
+            return;
+        current.cancelled.set(true);
+        current.future.cancel(false);
+        current = null;
+    }
+
+    public boolean isRunning() {
+        return current != null;
+    }
+
+    private class Job implements Runnable {
+
+        private final ForceDirectedPlacementStatic placement;
+        private final Runnable onLayout;
+
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicBoolean framePending = new AtomicBoolean();
+
+        private Future<?> future;
+
+        private long lastFrame = System.nanoTime();
+
+        Job(ForceDirectedPlacementStatic placement, Runnable onLayout) {
+            this.placement = placement;
+            this.onLayout = onLayout;
+        }
+
+        @Override
+        public void run() {
+            try {
+                settle();
+            }
+            catch (RuntimeException e) {
+                System.out.println("Error when computing the layout");
+                e.printStackTrace();
+                Platform.runLater(() -> {
+                    if (current == this)
+                        current = null;
+                });
+            }
+        }
+
+        private void settle() {
+            placement.simulate(() -> {
+                if (cancelled.get())
+                    return false;
+
+                // Skip frames while the application thread has not caught up with the previous one
+                long now = System.nanoTime();
+                if (now - lastFrame >= FRAME_INTERVAL && framePending.compareAndSet(false, true)) {
+                    lastFrame = now;
+                    Map<Long, Point2D> positions = placement.getLayoutPositionMap();
+                    Platform.runLater(() -> {
+                        framePending.set(false);
+                        if (!cancelled.get())
+                            canvas.applyPositions(positions);
+                    });
+                }
+                return true;
+            });
+
+            if (cancelled.get())
+                return;
+
+            Map<Long, Point2D> positions = placement.getLayoutPositionMap();
+            Platform.runLater(() -> {
+                if (cancelled.get())
+                    return;
+                canvas.applyPositions(positions);
+                current = null;
+                onLayout.run();
+            });
+        }
+    }
+}
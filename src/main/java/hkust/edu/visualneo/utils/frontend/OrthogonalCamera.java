@@ -1,9 +1,13 @@
 package hkust.edu.visualneo.utils.frontend;
 
 import javafx.beans.binding.Bindings;
+import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.geometry.BoundingBox;
 import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 
@@ -17,6 +21,7 @@ public class OrthogonalCamera {
     private static final double UNIT_RATIO = 0.1;
     private static final double ZOOM_UNITS = 2.5;
     private static final double FIT_PORTION = 0.95;
+    private static final double DETAIL_RATIO = 0.5;  // Below this ratio, labels and arrowheads are too small to be drawn
 
     private final Canvas canvas;
 
@@ -34,6 +39,13 @@ public class OrthogonalCamera {
     private final ObjectProperty<Point2D> position =
             new PositionProperty(this, "position");
 
+    // Part of the world shown on the canvas
+    private final ObjectProperty<Bounds> viewBounds =
+            new SimpleObjectProperty<>(this, "viewBounds");
+
+    private final BooleanProperty detailed =
+            new SimpleBooleanProperty(this, "detailed", true);
+
     public OrthogonalCamera(Canvas canvas) {
         this.canvas = Objects.requireNonNull(canvas);
 
@@ -41,6 +53,13 @@ public class OrthogonalCamera {
 
         viewWidthProperty().bind(Bindings.multiply(canvas.widthProperty(), inverseRatioProperty()));
         viewHeightProperty().bind(Bindings.multiply(canvas.heightProperty(), inverseRatioProperty()));
+
+        viewBoundsProperty().bind(Bindings.createObjectBinding(
+                () -> new BoundingBox(getX() - getViewWidth() * 0.5, getY() - getViewHeight() * 0.5,
+                                      getViewWidth(), getViewHeight()),
+                positionProperty(), viewWidthProperty(), viewHeightProperty()));
+
+        detailedProperty().bind(ratioProperty().greaterThanOrEqualTo(DETAIL_RATIO));
     }
 
     public Point2D worldToScreen(Point2D p) {
@@ -163,6 +182,20 @@ public class OrthogonalCamera {
         return viewHeightProperty().get();
     }
 
+    public ObjectProperty<Bounds> viewBoundsProperty() {
+        return viewBounds;
+    }
+    public Bounds getViewBounds() {
+        return viewBoundsProperty().get();
+    }
+
+    public BooleanProperty detailedProperty() {
+        return detailed;
+    }
+    public boolean isDetailed() {
+        return detailedProperty().get();
+    }
+
     public ObjectProperty<Point2D> positionProperty() {
         return position;
     }
@@ -0,0 +1,145 @@
+package hkust.edu.visualneo.utils.frontend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Force kernel splitting the pairwise passes across the workers of a pool.
+// Every worker adds into a displacement buffer of its own, and the buffers are summed into the
+// displacements once all workers are done, so no mutable state is shared inside the loops.
+public class ParallelForceKernel extends ForceKernel {
+
+    private static final int RANGES_PER_WORKER = 4;  // Smaller ranges even out the load of the independent passes
+
+    @FunctionalInterface
+    private interface Pass {
+        void run(int worker, double[] bufferX, double[] bufferY);
+    }
+
+    private final ForkJoinPool pool;
+    private final int workers;
+    private final ForceKernel rows;  // Computes the rows of the pairwise passes on each worker
+
+    private final double[][] bufferXs;
+    private final double[][] bufferYs;
+
+    public ParallelForceKernel(ForkJoinPool pool) {
+        this(pool, new ForceKernel());
+    }
+
+    public ParallelForceKernel(ForkJoinPool pool, ForceKernel rows) {
+        this.pool = pool;
+        this.rows = rows;
+        workers = pool.getParallelism();
+        bufferXs = new double[workers][0];
+        bufferYs = new double[workers][0];
+    }
+
+    @Override
+    public void forEachRange(int count, RangeAction action) {
+        int ranges = Math.min(count, workers * RANGES_PER_WORKER);
+        List<Callable<Void>> tasks = new ArrayList<>(ranges);
+        for (int r = 0; r < ranges; ++r) {
+            int start = (int) ((long) count * r / ranges);
+            int end = (int) ((long) count * (r + 1) / ranges);
+            tasks.add(() -> {
+                action.run(start, end);
+                return null;
+            });
+        }
+        invokeAll(tasks);
+    }
+
+    // Rows are dealt out round-robin, which balances the shrinking inner loops of the triangle
+    @Override
+    public void repulse(double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                        int count, double strength, double cutoff) {
+        double sqrCutoff = cutoff * cutoff;
+        run(count, dispXs, dispYs, (worker, bufferX, bufferY) -> {
+            for (int i = worker; i < count; i += workers)
+                rows.repulseRow(i, i + 1, count, xs, ys, bufferX, bufferY, strength, sqrCutoff);
+        });
+    }
+
+    @Override
+    public void attractAll(double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                           int count, double strength) {
+        run(count, dispXs, dispYs, (worker, bufferX, bufferY) -> {
+            for (int i = worker; i < count; i += workers)
+                rows.attractRow(i, i + 1, count, xs, ys, bufferX, bufferY, strength);
+        });
+    }
+
+    @Override
+    public void attract(double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                        int[] starts, int[] ends, double strength) {
+        int edgeCount = starts.length;
+        run(xs.length, dispXs, dispYs, (worker, bufferX, bufferY) -> {
+            int from = (int) ((long) edgeCount * worker / workers);
+            int to = (int) ((long) edgeCount * (worker + 1) / workers);
+            for (int k = from; k < to; ++k) {
+                int i = starts[k];
+                int j = ends[k];
+                double dx = xs[j] - xs[i];
+                double dy = ys[j] - ys[i];
+                double factor = strength * Math.sqrt(dx * dx + dy * dy);
+                bufferX[i] += dx * factor;
+                bufferY[i] += dy * factor;
+                bufferX[j] -= dx * factor;
+                bufferY[j] -= dy * factor;
+            }
+        });
+    }
+
+    // Run the pass on every worker with a cleared buffer, then add all buffers into the displacements
+    private void run(int count, double[] dispXs, double[] dispYs, Pass pass) {
+        List<Callable<Void>> tasks = new ArrayList<>(workers);
+        for (int w = 0; w < workers; ++w) {
+            int worker = w;
+            tasks.add(() -> {
+                if (bufferXs[worker].length < count) {
+                    bufferXs[worker] = new double[count];
+                    bufferYs[worker] = new double[count];
+                }
+                else {
+                    Arrays.fill(bufferXs[worker], 0, count, 0.0);
+                    Arrays.fill(bufferYs[worker], 0, count, 0.0);
+                }
+                pass.run(worker, bufferXs[worker], bufferYs[worker]);
+                return null;
+            });
+        }
+        invokeAll(tasks);
+
+        forEachRange(count, (start, end) -> {
+            for (int w = 0; w < workers; ++w) {
+                double[] bufferX = bufferXs[w];
+                double[] bufferY = bufferYs[w];
+                for (int i = start; i < end; ++i) {
+                    dispXs[i] += bufferX[i];
+                    dispYs[i] += bufferY[i];
+                }
+            }
+        });
+    }
+
+    private void invokeAll(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks))
+                future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
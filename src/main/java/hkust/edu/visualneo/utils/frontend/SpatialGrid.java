@@ -0,0 +1,123 @@
+package hkust.edu.visualneo.utils.frontend;
+
+import java.util.Arrays;
+
+// Uniform grid over a set of points, with the points of every cell stored contiguously (counting sort).
+// With cells at least as large as a cutoff distance, every pair closer than the cutoff lies in the same
+// cell or in two adjacent ones. A grid may also be built over boxes, each stored in every cell it overlaps,
+// so that the boxes covering a point are all in its cell. The arrays are reused between builds.
+public class SpatialGrid {
+
+    private static final int MAX_CELLS_PER_POINT = 4;  // Cells are enlarged beyond this, e.g. when a point flies far away
+
+    private double minX;
+    private double minY;
+    private double cellSize;
+    private int cols;
+    private int rows;
+
+    private int[] cellStarts = new int[0];  // Points or boxes of cell c are order[cellStarts[c]] to order[cellStarts[c + 1] - 1]
+    private int[] order = new int[0];
+    private int[] cellOf = new int[0];
+
+    public void build(double[] xs, double[] ys, int count, double minCellSize) {
+        int cells = frame(xs, ys, xs, ys, count, minCellSize);
+        if (order.length < count)
+            order = new int[count];
+        if (cellOf.length < count)
+            cellOf = new int[count];
+
+        for (int i = 0; i < count; ++i) {
+            cellOf[i] = rowOf(ys[i]) * cols + colOf(xs[i]);
+            ++cellStarts[cellOf[i] + 1];
+        }
+        toStarts(cells);
+        for (int i = 0; i < count; ++i)
+            order[cellStarts[cellOf[i] + 1]++] = i;
+    }
+
+    // Grid over the boxes [minXs[i], maxXs[i]] x [minYs[i], maxYs[i]], where order holds a box once per cell
+    public void build(double[] minXs, double[] minYs, double[] maxXs, double[] maxYs, int count, double minCellSize) {
+        int cells = frame(minXs, minYs, maxXs, maxYs, count, minCellSize);
+
+        for (int i = 0; i < count; ++i)
+            for (int row = rowOf(minYs[i]); row <= rowOf(maxYs[i]); ++row)
+                for (int col = colOf(minXs[i]); col <= colOf(maxXs[i]); ++col)
+                    ++cellStarts[row * cols + col + 1];
+        int entries = toStarts(cells);
+        if (order.length < entries)
+            order = new int[Math.max(entries, order.length * 2)];
+        for (int i = 0; i < count; ++i)
+            for (int row = rowOf(minYs[i]); row <= rowOf(maxYs[i]); ++row)
+                for (int col = colOf(minXs[i]); col <= colOf(maxXs[i]); ++col)
+                    order[cellStarts[row * cols + col + 1]++] = i;
+    }
+
+    // Lay the cells over the boxes and clear their counts, returning the number of cells
+    private int frame(double[] minXs, double[] minYs, double[] maxXs, double[] maxYs, int count, double minCellSize) {
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; ++i) {
+            minX = Math.min(minX, minXs[i]);
+            minY = Math.min(minY, minYs[i]);
+            maxX = Math.max(maxX, maxXs[i]);
+            maxY = Math.max(maxY, maxYs[i]);
+        }
+        if (count == 0) {
+            minX = minY = maxX = maxY = 0.0;
+        }
+
+        double width = maxX - minX;
+        double height = maxY - minY;
+        long maxCells = (long) MAX_CELLS_PER_POINT * count + 1;
+        cellSize = Math.max(minCellSize, Math.sqrt(width * height / maxCells));
+        cols = (int) Math.min(width / cellSize, maxCells) + 1;
+        rows = (int) Math.min(height / cellSize, maxCells / cols) + 1;
+        int cells = cols * rows;
+
+        if (cellStarts.length < cells + 1)
+            cellStarts = new int[Math.max(cells + 1, cellStarts.length * 2)];
+        Arrays.fill(cellStarts, 0, cells + 1, 0);
+        return cells;
+    }
+
+    // Turn the sizes counted in cellStarts[c + 1] into starts, each moved one cell up, so that filling
+    // each cell c from cellStarts[c + 1] on leaves cellStarts[c] at its start. Returns the total size.
+    private int toStarts(int cells) {
+        for (int c = 0; c < cells; ++c)
+            cellStarts[c + 1] += cellStarts[c];
+        int total = cellStarts[cells];
+        for (int c = cells; c > 0; --c)
+            cellStarts[c] = cellStarts[c - 1];
+        cellStarts[0] = 0;
+        return total;
+    }
+
+    // Column and row of the cell holding a point, points outside the grid falling in the nearest cell
+    public int colOf(double x) {
+        return Math.max(0, Math.min((int) Math.floor((x - minX) / cellSize), cols - 1));
+    }
+
+    public int rowOf(double y) {
+        return Math.max(0, Math.min((int) Math.floor((y - minY) / cellSize), rows - 1));
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    // Shared with the caller for speed, not to be modified
+    public int[] cellStarts() {
+        return cellStarts;
+    }
+
+    public int[] order() {
+        return order;
+    }
+}
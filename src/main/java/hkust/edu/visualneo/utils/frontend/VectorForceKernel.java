@@ -0,0 +1,76 @@
+package hkust.edu.visualneo.utils.frontend;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Force kernel evaluating the rows of the pairwise passes on as many vertices at once as the CPU has
+// double lanes, using the incubating Vector API. Only compiled by the "vector" profile, and only loaded
+// by ForceKernel.of once the module is known to be present, e.g. with --add-modules jdk.incubator.vector.
+public class VectorForceKernel extends ForceKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    static ForceKernel create() {
+        return new VectorForceKernel();
+    }
+
+    public static int lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    protected void repulseRow(int i, int from, int to, double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                              double strength, double sqrCutoff) {
+        DoubleVector x = DoubleVector.broadcast(SPECIES, xs[i]);
+        DoubleVector y = DoubleVector.broadcast(SPECIES, ys[i]);
+        DoubleVector dispX = DoubleVector.zero(SPECIES);
+        DoubleVector dispY = DoubleVector.zero(SPECIES);
+
+        int bound = from + SPECIES.loopBound(to - from);
+        for (int j = from; j < bound; j += SPECIES.length()) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, xs, j).sub(x);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, ys, j).sub(y);
+            DoubleVector sqrDist = dx.mul(dx).add(dy.mul(dy));
+            VectorMask<Double> far = sqrDist.compare(VectorOperators.GT, sqrCutoff);
+            DoubleVector factor = DoubleVector.broadcast(SPECIES, strength).div(sqrDist).blend(0.0, far);
+            DoubleVector forceX = dx.mul(factor);
+            DoubleVector forceY = dy.mul(factor);
+            dispX = dispX.sub(forceX);
+            dispY = dispY.sub(forceY);
+            DoubleVector.fromArray(SPECIES, dispXs, j).add(forceX).intoArray(dispXs, j);
+            DoubleVector.fromArray(SPECIES, dispYs, j).add(forceY).intoArray(dispYs, j);
+        }
+        dispXs[i] += dispX.reduceLanes(VectorOperators.ADD);
+        dispYs[i] += dispY.reduceLanes(VectorOperators.ADD);
+
+        super.repulseRow(i, bound, to, xs, ys, dispXs, dispYs, strength, sqrCutoff);
+    }
+
+    @Override
+    protected void attractRow(int i, int from, int to, double[] xs, double[] ys, double[] dispXs, double[] dispYs,
+                              double strength) {
+        DoubleVector x = DoubleVector.broadcast(SPECIES, xs[i]);
+        DoubleVector y = DoubleVector.broadcast(SPECIES, ys[i]);
+        DoubleVector dispX = DoubleVector.zero(SPECIES);
+        DoubleVector dispY = DoubleVector.zero(SPECIES);
+
+        int bound = from + SPECIES.loopBound(to - from);
+        for (int j = from; j < bound; j += SPECIES.length()) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, xs, j).sub(x);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, ys, j).sub(y);
+            DoubleVector factor = dx.mul(dx).add(dy.mul(dy)).sqrt().mul(strength);
+            DoubleVector forceX = dx.mul(factor);
+            DoubleVector forceY = dy.mul(factor);
+            dispX = dispX.add(forceX);
+            dispY = dispY.add(forceY);
+            DoubleVector.fromArray(SPECIES, dispXs, j).sub(forceX).intoArray(dispXs, j);
+            DoubleVector.fromArray(SPECIES, dispYs, j).sub(forceY).intoArray(dispYs, j);
+        }
+        dispXs[i] += dispX.reduceLanes(VectorOperators.ADD);
+        dispYs[i] += dispY.reduceLanes(VectorOperators.ADD);
+
+        super.attractRow(i, bound, to, xs, ys, dispXs, dispYs, strength);
+    }
+}
@@ -28,11 +28,11 @@ public class Vertex extends GraphElement {
     public static final double ORIGIN_HUE = 30.0;
     public static final double ORIGIN_SATURATION = 0.8;
     public static final double ORIGIN_BRIGHTNESS = 0.9;
-    private static final double CIRCLE_STROKE_WIDTH = 1.5;
-    private static final double TEXT_STROKE_WIDTH = 0.3;
-    private static final Color STROKE_COLOR = Color.DARKGREY;
-    private static final Color TEXT_COLOR = Color.WHITE;
-    private static final Font TEXT_FONT = Font.font("Verdana", FontWeight.BOLD, 12.0);
+    static final double CIRCLE_STROKE_WIDTH = 1.5;
+    static final double TEXT_STROKE_WIDTH = 0.3;
+    static final Color STROKE_COLOR = Color.DARKGREY;
+    static final Color TEXT_COLOR = Color.WHITE;
+    static final Font TEXT_FONT = Font.font("Verdana", FontWeight.BOLD, 12.0);
 
     private final DoubleProperty selfLoopAngle =
             new SimpleDoubleProperty(this, "selfLoopAngle", DEFAULT_ANGLE);
@@ -82,7 +82,8 @@ public class Vertex extends GraphElement {
     public Vertex(Canvas canvas, Node node) {
         super(canvas, node.getId());
 
-        initializeGraphics();
+        if (!canvas.isImmediate())
+            initializeGraphics();
 
         positionProperty().addListener(positionListener);
         neighborhoodProperty().addListener(neighborhoodListener);